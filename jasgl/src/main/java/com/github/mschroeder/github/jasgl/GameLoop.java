@@ -1,6 +1,13 @@
 package com.github.mschroeder.github.jasgl;
 
+import com.github.mschroeder.github.jasgl.loop.FrameStats;
+import com.github.mschroeder.github.jasgl.loop.JobHandle;
+import com.github.mschroeder.github.jasgl.loop.LatencyHistogram;
+import com.github.mschroeder.github.jasgl.loop.TaskScheduler;
 import java.awt.Dimension;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
 
 /**
  * Interface for accessing GameLoop from Game.
@@ -21,7 +28,8 @@ public interface GameLoop {
     public void close();
     
     /**
-     * The current frame.
+     * The current frame within the second: it counts up to the target 
+     * frame rate and starts again at 0.
      * @return 
      */
     public int frame();
@@ -32,4 +40,157 @@ public interface GameLoop {
      */
     public Dimension getScreenSize();
     
+    /**
+     * Sets how many frames per second the loop runs. Default is 30.
+     * @param fps e.g. 60, 120 or 144
+     */
+    public void setTargetFps(int fps);
+    
+    /**
+     * The frames per second the loop aims for.
+     * @return 
+     */
+    public int getTargetFps();
+    
+    /**
+     * Switches the loop to a fixed timestep: update is called ticksPerSecond
+     * times a second with always the same delta, independent of how long
+     * rendering takes. If the loop falls behind, at most maxCatchUpTicks
+     * updates are run before the next frame is rendered.
+     * Use a ticksPerSecond less or equal 0 to switch back to a variable timestep.
+     * @param ticksPerSecond update rate, e.g. 120
+     * @param maxCatchUpTicks maximum updates in one frame, e.g. 5
+     */
+    public void setFixedTimestep(int ticksPerSecond, int maxCatchUpTicks);
+    
+    /**
+     * In fixed timestep mode: how far the rendered frame is between the last
+     * update and the next one. Use it in render to interpolate positions.
+     * @return value in [0, 1), always 0 with a variable timestep
+     */
+    public double getInterpolation();
+    
+    /**
+     * Rendering happens in its own thread with at most one frame pending.
+     * If the game loop requests a new frame before the pending one was
+     * rendered, the stale frame is dropped.
+     * @return number of frames dropped so far
+     */
+    public long getDroppedFrames();
+    
+    /**
+     * Timing of input, update and rendering of the last frames and the
+     * achieved frame rate.
+     * @return 
+     */
+    public FrameStats getFrameStats();
+    
+    /**
+     * Shows the frame stats as text in the upper left corner.
+     * @param visible 
+     */
+    public void setFrameStatsOverlay(boolean visible);
+    
+    /**
+     * Measures the input-to-photon latency: the time from dispatching a key 
+     * or mouse button event until the first frame that reflects it is shown.
+     * @param enabled 
+     */
+    public void setLatencyMeasurement(boolean enabled);
+    
+    /**
+     * The latencies measured while latency measurement is enabled.
+     * @return 
+     */
+    public LatencyHistogram getInputLatency();
+    
+    /**
+     * Records every tick into a compact binary log: the input events fed to
+     * Game.input and the deltas passed to Game.update.
+     * Call it from the game, e.g. in input or update.
+     * If writing fails, the recording stops and the loop goes on.
+     * @param out the log is written to this stream
+     * @see #startReplay(java.io.InputStream) 
+     */
+    public void startRecording(OutputStream out);
+    
+    /**
+     * Ends the log and closes its stream.
+     */
+    public void stopRecording();
+    
+    /**
+     * Replays a log of {@link #startRecording(java.io.OutputStream)}: 
+     * instead of live input and real time, the recorded input and deltas are
+     * fed to the game tick by tick, so the session is reproduced exactly
+     * (as long as the game itself is deterministic).
+     * Live and scripted input is ignored meanwhile. When the replay starts 
+     * and ends, all hold keys and buttons are let go.
+     * @param in the log is read from this stream
+     */
+    public void startReplay(InputStream in);
+    
+    /**
+     * If a replay is running.
+     * @return 
+     */
+    public boolean isReplaying();
+    
+    /**
+     * Renders only when something changed: input arrived, the game is not
+     * {@link Redrawable} or it needs a redraw, or a wake-up happened.
+     * Otherwise the frame is skipped and the loop runs with the idle frame rate
+     * until the next input or wake-up.
+     * @param idleFps frame rate while idle, a value &lt;= 0 disables idle mode
+     */
+    public void setIdleMode(int idleFps);
+    
+    /**
+     * Renders the next frame and leaves idle mode until nothing changes again.
+     * Can be called from any thread, e.g. when a resource finished loading.
+     */
+    public void wakeUp();
+    
+    /**
+     * Schedules a wake-up, e.g. for a blinking cursor or a timer in a menu.
+     * @param ms milliseconds from now
+     */
+    public void wakeUpIn(double ms);
+    
+    /**
+     * Adapts the internal render resolution of a fixed viewport to hold the
+     * frame rate: if drawing takes too long, the viewport is rendered smaller
+     * and scaled up. {@link #getScreenSize()} and the coordinates the game
+     * renders in stay the same.
+     * Has no effect without a fixed viewport.
+     * @param minScale lowest scale of the viewport, a value &lt;= 0 disables it
+     * @param maxScale highest scale of the viewport, usually 1
+     */
+    public void setDynamicResolution(double minScale, double maxScale);
+    
+    /**
+     * The scale the viewport is currently rendered with.
+     * @return 1 if dynamic resolution is disabled
+     */
+    public double getResolutionScale();
+    
+    /**
+     * Runs expensive work (e.g. loading a map, pathfinding, saving) on a 
+     * worker thread. The job must not change the game state itself: 
+     * the callbacks of the returned handle are called on the loop thread 
+     * between input and update of a later frame, and may change it there.
+     * @param <T> type of the result
+     * @param job the work
+     * @return handle to register callbacks or cancel the job
+     */
+    public <T> JobHandle<T> submit(Callable<T> job);
+    
+    /**
+     * Incremental tasks scheduled here run on the loop thread after update 
+     * and before render, within the budget of the scheduler (2 ms by default).
+     * Use it for work which changes game state and is too long for one frame.
+     * @return 
+     */
+    public TaskScheduler getTaskScheduler();
+    
 }
@@ -1,24 +1,37 @@
 package com.github.mschroeder.github.jasgl;
 
+import com.github.mschroeder.github.jasgl.loop.FixedTimestep;
+import com.github.mschroeder.github.jasgl.loop.FramePacer;
+import com.github.mschroeder.github.jasgl.loop.FrameStats;
+import com.github.mschroeder.github.jasgl.loop.FrameStats.Phase;
+import com.github.mschroeder.github.jasgl.loop.InputRecord;
+import com.github.mschroeder.github.jasgl.loop.InputRecorder;
+import com.github.mschroeder.github.jasgl.loop.InputReplay;
+import com.github.mschroeder.github.jasgl.loop.InputRingBuffer;
+import com.github.mschroeder.github.jasgl.loop.JobHandle;
+import com.github.mschroeder.github.jasgl.loop.JobSystem;
+import com.github.mschroeder.github.jasgl.loop.KeyboardState;
+import com.github.mschroeder.github.jasgl.loop.LatencyHistogram;
+import com.github.mschroeder.github.jasgl.loop.MouseState;
+import com.github.mschroeder.github.jasgl.loop.ResolutionScaler;
+import com.github.mschroeder.github.jasgl.loop.TaskScheduler;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.KeyboardFocusManager;
 import java.awt.Point;
 import java.awt.RenderingHints;
 import java.awt.Toolkit;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import java.awt.image.BufferedImage;
-import java.util.AbstractMap;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import javax.swing.SwingUtilities;
+import java.awt.image.VolatileImage;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
 import javax.swing.SwingWorker;
 import javax.swing.event.MouseInputListener;
 
@@ -29,20 +42,61 @@ import javax.swing.event.MouseInputListener;
  */
 public class GameLoopFrame extends javax.swing.JFrame implements GameLoop {
 
-    private static final int FPS30MS = (int) ((1 / 30.0) * 1000);
-    private static final long NANO_TO_MILLI = 1000000;
+    private static final int DEFAULT_FPS = 30;
+    private static final double NANO_TO_MILLI = 1000000.0;
+    private static final int INPUT_BUFFER_CAPACITY = 1024;
+    //frame does not reflect a measured input
+    private static final long NO_INPUT = Long.MIN_VALUE;
+    private static final double DEFAULT_TASK_BUDGET_MILLIS = 2;
     
     private Color background;
     private Game game;
     
     private boolean debugFrameRate;
+    private volatile boolean frameStatsOverlay;
+    private FrameStats frameStats = new FrameStats();
+    private volatile boolean latencyMeasurement;
+    private LatencyHistogram inputLatency = new LatencyHistogram();
     private int frame = 0;
     
-    private boolean running = true;
-    
-    private Object inputLock = new Object();
+    private volatile boolean running = true;
     
     private Dimension fixedViewportSize;
+    //reused every frame, only touched by the render thread
+    private VolatileImage viewportImage;
+    private volatile Scaling scaling = Scaling.Bilinear;
+    //null means the viewport is always rendered in its full size
+    private volatile ResolutionScaler resolutionScaler;
+    private volatile double resolutionScale = 1;
+    
+    /**
+     * How the fixed viewport is scaled to the canvas.
+     */
+    public enum Scaling {
+        /**
+         * Stretches the viewport as large as possible keeping the aspect ratio,
+         * interpolated bilinear.
+         */
+        Bilinear,
+        /**
+         * Scales the viewport by the largest integer factor that fits,
+         * nearest neighbor. Pixel art stays sharp and it is cheaper than bilinear.
+         */
+        IntegerNearestNeighbor
+    }
+    
+    //null means variable timestep
+    private volatile FixedTimestep fixedTimestep;
+    //alpha of the frame which is currently rendered
+    private volatile double interpolation;
+    
+    private RenderThread renderThread;
+    private final FramePacer framePacer = new FramePacer(DEFAULT_FPS);
+    //skip frames when nothing changed
+    private volatile boolean idleMode;
+    //a finished job wakes up an idle loop
+    private final JobSystem jobSystem = new JobSystem(framePacer::wakeUp);
+    private final TaskScheduler taskScheduler = new TaskScheduler(DEFAULT_TASK_BUDGET_MILLIS);
     
     public GameLoopFrame(String title, int w, int h, Color background, Game game) {
         initComponents();
@@ -58,7 +112,40 @@ public class GameLoopFrame extends javax.swing.JFrame implements GameLoop {
         canvas.setIgnoreRepaint(true);
         
         //mouse
-        canvas.addMouseListener(new InternalMouseInputListener());
+        InternalMouseInputListener mouseListener = new InternalMouseInputListener();
+        canvas.addMouseListener(mouseListener);
+        canvas.addMouseMotionListener(mouseListener);
+        canvas.addMouseWheelListener(mouseListener);
+        
+        //a resized or uncovered canvas has to be rendered again in idle mode
+        canvas.addComponentListener(new java.awt.event.ComponentAdapter() {
+            @Override
+            public void componentResized(java.awt.event.ComponentEvent e) {
+                framePacer.wakeUp();
+            }
+
+            @Override
+            public void componentShown(java.awt.event.ComponentEvent e) {
+                framePacer.wakeUp();
+            }
+        });
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowDeiconified(java.awt.event.WindowEvent e) {
+                framePacer.wakeUp();
+            }
+
+            @Override
+            public void windowActivated(java.awt.event.WindowEvent e) {
+                framePacer.wakeUp();
+            }
+
+            @Override
+            public void windowDeactivated(java.awt.event.WindowEvent e) {
+                //releases are not delivered to an inactive window
+                edtKeys.releaseAll();
+            }
+        });
         
         //keyboard
         KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher((KeyEvent evt) -> {
@@ -85,244 +172,367 @@ public class GameLoopFrame extends javax.swing.JFrame implements GameLoop {
         }
     }
     
-    private Queue<KeyEvent> keyEventQueue = new ConcurrentLinkedQueue<>();
-    private Queue<MouseEvent> mouseEventQueue = new ConcurrentLinkedQueue<>();
+    //keys hold as seen by the EDT, to drop auto repeated presses early
+    private KeyboardState edtKeys = new KeyboardState();
+    
+    //written by the EDT, drained by the game loop
+    private InputRingBuffer inputBuffer = new InputRingBuffer(INPUT_BUFFER_CAPACITY);
+    private InputRecord inputRecord = new InputRecord();
+    
+    //record resp. replay input and update deltas per tick
+    private volatile InputRecorder inputRecorder;
+    private volatile InputReplay inputReplay;
+    private long tick;
     
     //====================================================================
 
-    private InternalMouse internalMouse = new InternalMouse();
-    private class InternalMouseInputListener implements MouseInputListener {
+    private MouseState mouseState = new MouseState();
+    //moves are not queued, only the latest position is kept (x << 32 | y)
+    private volatile long latestMousePosition;
+    
+    //how the viewport is placed on the canvas, written by the render thread
+    private volatile double viewportOffsetX;
+    private volatile double viewportOffsetY;
+    private volatile double viewportScaleX = 1;
+    private volatile double viewportScaleY = 1;
+    
+    private class InternalMouseInputListener implements MouseInputListener, MouseWheelListener {
 
+        private void position(MouseEvent e) {
+            latestMousePosition = ((long) e.getX() << 32) | (e.getY() & 0xffffffffL);
+            framePacer.wakeUp();
+        }
+        
+        private void offer(int type, MouseEvent e) {
+            inputBuffer.offer(type, e.getButton(), e.getX(), e.getY(), e.getModifiersEx(), System.nanoTime());
+        }
+        
         @Override
         public void mouseClicked(MouseEvent e) {
-            mouseEventQueue.add(e);
+            //pressed and released are enough
         }
 
         
         @Override
         public void mousePressed(MouseEvent e) {
-            mouseEventQueue.add(e);
+            position(e);
+            offer(InputRecord.BUTTON_PRESSED, e);
         }
 
         @Override
         public void mouseReleased(MouseEvent e) {
-            mouseEventQueue.add(e);
+            position(e);
+            offer(InputRecord.BUTTON_RELEASED, e);
         }
 
         
         @Override
         public void mouseEntered(MouseEvent e) {
-            mouseEventQueue.add(e);
+            position(e);
+            offer(InputRecord.MOUSE_ENTERED, e);
         }
 
         @Override
         public void mouseExited(MouseEvent e) {
-            mouseEventQueue.add(e);
+            position(e);
+            offer(InputRecord.MOUSE_EXITED, e);
         }
 
         
         
         @Override
         public void mouseDragged(MouseEvent e) {
-            mouseEventQueue.add(e);
+            position(e);
         }
 
         @Override
         public void mouseMoved(MouseEvent e) {
-            
-        }
-    }
-    
-    private class InternalMouse implements Mouse {
-        
-        private List<MouseEvent> mouseEvents = new ArrayList<>();
-
-        private Map<Integer, MouseEvent> toButtonMap() {
-            Map<Integer, MouseEvent> m = new HashMap<>();
-            for(MouseEvent e : mouseEvents) {
-                m.put(e.getButton(), e);
-            }
-            return m;
-        }
-        
-        private Map<Map.Entry<Integer, Integer>, MouseEvent> toButtonIDMap() {
-            Map<Map.Entry<Integer, Integer>, MouseEvent> m = new HashMap<>();
-            for(MouseEvent e : mouseEvents) {
-                m.put(new AbstractMap.SimpleEntry<>(e.getButton(), e.getID()), e);
-            }
-            return m;
-        }
-        
-        @Override
-        public boolean left() {
-            Entry e = new AbstractMap.SimpleEntry<>(MouseEvent.BUTTON1, MouseEvent.MOUSE_PRESSED);
-            return toButtonIDMap().containsKey(e);
-        }
-
-        @Override
-        public boolean middle() {
-            Entry e = new AbstractMap.SimpleEntry<>(MouseEvent.BUTTON2, MouseEvent.MOUSE_PRESSED);
-            return toButtonIDMap().containsKey(e);
+            position(e);
         }
 
         @Override
-        public boolean right() {
-            Entry e = new AbstractMap.SimpleEntry<>(MouseEvent.BUTTON3, MouseEvent.MOUSE_PRESSED);
-            return toButtonIDMap().containsKey(e);
+        public void mouseWheelMoved(MouseWheelEvent e) {
+            float rotation = (float) e.getPreciseWheelRotation();
+            inputBuffer.offer(InputRecord.WHEEL_ROTATED, Float.floatToIntBits(rotation), e.getX(), e.getY(), e.getModifiersEx(), System.nanoTime());
+            framePacer.wakeUp();
         }
-        
     }
     
     //====================================================================
     
-    private InternalKeyboard internalKeyboard = new InternalKeyboard();
+    private KeyboardState keyboardState = new KeyboardState();
     private void globalKeyboardEventProcessing(KeyEvent evt) {
-        synchronized(inputLock) {
-            //the pressed event comes often because of auto repeat
-            switch(evt.getID()) {
-                case KeyEvent.KEY_TYPED: return;
-                case KeyEvent.KEY_PRESSED:
-                    if(!internalKeyboard.pressed[evt.getKeyCode()]) {
-                        internalKeyboard.pressed[evt.getKeyCode()] = true;
-                        keyEventQueue.add(evt);
-                    }
-                    break;
-                case KeyEvent.KEY_RELEASED:
-                    //release comes one once the key is released
-                    keyEventQueue.add(evt);
-                    internalKeyboard.pressed[evt.getKeyCode()] = false;
-                    break;
-            }
+        switch(evt.getID()) {
+            case KeyEvent.KEY_TYPED: return;
+            case KeyEvent.KEY_PRESSED:
+                //the pressed event comes often because of auto repeat:
+                //it is neither queued nor wakes up an idle loop
+                if(edtKeys.hold(evt.getKeyCode())) {
+                    return;
+                }
+                edtKeys.keyPressed(evt.getKeyCode());
+                inputBuffer.offer(InputRecord.KEY_PRESSED, evt.getKeyCode(), 0, 0, evt.getModifiersEx(), System.nanoTime());
+                break;
+            case KeyEvent.KEY_RELEASED:
+                edtKeys.keyReleased(evt.getKeyCode());
+                inputBuffer.offer(InputRecord.KEY_RELEASED, evt.getKeyCode(), 0, 0, evt.getModifiersEx(), System.nanoTime());
+                break;
         }
+        framePacer.wakeUp();
     }
-    private class InternalKeyboard implements Keyboard {
-
-        private List<KeyEvent> keyEvents = new ArrayList<>();
+    
+    //renders frames requested by the game loop outside of the EDT
+    //at most one frame is pending: a newer request replaces a stale one
+    private class RenderThread extends Thread {
         
-        //know what is pressed (now)
-        private boolean[] pressed = new boolean[70000];
+        private final Object frameLock = new Object();
+        private boolean pending;
+        private double pendingAlpha;
+        private long pendingInputNanos = NO_INPUT;
+        private long droppedFrames;
         
-        @Override
-        public boolean hold(int keyCode) {
-            return pressed[keyCode];
+        public RenderThread() {
+            super("jasgl-render");
+            setDaemon(true);
         }
         
-        public int[] pressed() {
-            return keyEvents.stream().filter(ke -> ke.getID() == KeyEvent.KEY_PRESSED).mapToInt(ke -> ke.getKeyCode()).toArray();
+        //called by the game loop, never blocks
+        public void submit(double alpha, long inputNanos) {
+            synchronized(frameLock) {
+                if(pending) {
+                    //previous frame was not rendered yet: it is stale now
+                    droppedFrames++;
+                    //its input is first shown with this frame
+                    if(pendingInputNanos != NO_INPUT) {
+                        inputNanos = pendingInputNanos;
+                    }
+                }
+                pending = true;
+                pendingAlpha = alpha;
+                pendingInputNanos = inputNanos;
+                frameLock.notifyAll();
+            }
         }
-
-        @Override
-        public boolean pressed(int keyCode) {
-            return keyEvents.stream().filter(ke -> ke.getID() == KeyEvent.KEY_PRESSED).anyMatch(ke -> ke.getKeyCode() == keyCode);
+        
+        public long getDroppedFrames() {
+            synchronized(frameLock) {
+                return droppedFrames;
+            }
         }
-
-        @Override
-        public boolean released(int keyCode) {
-            return keyEvents.stream().filter(ke -> ke.getID() == KeyEvent.KEY_RELEASED).anyMatch(ke -> ke.getKeyCode() == keyCode);
+        
+        public void shutdown() {
+            synchronized(frameLock) {
+                frameLock.notifyAll();
+            }
+            try {
+                join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
         }
         
+        @Override
+        public void run() {
+            while(running) {
+                double alpha;
+                long inputNanos;
+                synchronized(frameLock) {
+                    while(!pending && running) {
+                        try {
+                            frameLock.wait();
+                        } catch (InterruptedException ex) {
+                            return;
+                        }
+                    }
+                    if(!pending) {
+                        continue;
+                    }
+                    pending = false;
+                    alpha = pendingAlpha;
+                    inputNanos = pendingInputNanos;
+                    pendingInputNanos = NO_INPUT;
+                }
+                
+                interpolation = alpha;
+                activeRendering(inputNanos);
+            }
+        }
     }
     
     //swing worker runs game loop
     private void gameLoopAsSwingWorker() {
+        renderThread = new RenderThread();
+        renderThread.start();
+        
         SwingWorker sw = new SwingWorker() {
             @Override
             protected Object doInBackground() throws Exception {
+                long begin;
+                long end;
+                long elapsed;
+                long lastUpdate = System.nanoTime();
+                boolean replaying = false;
+                
+                framePacer.start();
+                
                 while (running) {
-
-                    long sleep = FPS30MS;
-                    long begin;
-                    long end;
-                    long elapsed;
-                    long elapsedMs;
                     
                     //---------------------------------------------
                     //input
                     
                     begin = System.nanoTime();
 
-                    synchronized(inputLock) {
-                        //all key events in this frame
-                        internalKeyboard.keyEvents.clear();
-                        internalKeyboard.keyEvents.addAll(keyEventQueue);
-
-                        //all mouse events in this frame
-                        internalMouse.mouseEvents.clear();
-                        internalMouse.mouseEvents.addAll(mouseEventQueue);
-
-                        //game changes state based on input
-                        try {
-                            game.input(internalKeyboard, internalMouse);
-                        } catch(Exception e) {
-                            e.printStackTrace();
-                            running = false;
+                    InputRecorder recorder = inputRecorder;
+                    InputReplay replay = inputReplay;
+                    if(replay != null && !nextReplayTick(replay)) {
+                        //log ended: back to live input
+                        inputReplay = replay = null;
+                    }
+                    recorder = recordTick(recorder, tick);
+                    
+                    //all input events of this frame
+                    keyboardState.beginFrame();
+                    mouseState.beginFrame();
+                    if(replaying != (replay != null)) {
+                        //keys hold by the other input source are let go
+                        replaying = replay != null;
+                        keyboardState.releaseAll();
+                        mouseState.releaseAll();
+                    }
+                    mouseState.setViewportTransform(viewportOffsetX, viewportOffsetY, viewportScaleX, viewportScaleY);
+                    long oldestInput = NO_INPUT;
+                    boolean hadInput = false;
+                    while(inputBuffer.poll(inputRecord)) {
+                        if(replay != null) {
+                            //live input is ignored while replaying
                             continue;
                         }
+                        inputRecord.applyTo(keyboardState, mouseState);
+                        recorder = recordInput(recorder, inputRecord);
+                        if(oldestInput == NO_INPUT) {
+                            oldestInput = inputRecord.nanos;
+                        }
+                        hadInput = true;
+                    }
+                    if(replay != null) {
+                        hadInput = replay.getInputCount() > 0;
+                        for(int i = 0; i < replay.getInputCount(); i++) {
+                            replay.getInput(i).applyTo(keyboardState, mouseState);
+                            recorder = recordInput(recorder, replay.getInput(i));
+                        }
+                    } else {
+                        //all moves of the frame as one sample
+                        long position = latestMousePosition;
+                        int mouseX = (int) (position >> 32);
+                        int mouseY = (int) position;
+                        if(recorder != null && (mouseX != mouseState.getX() || mouseY != mouseState.getY())) {
+                            recorder = recordInput(recorder, InputRecord.MOUSE_MOVED, 0, mouseX, mouseY, 0);
+                        }
+                        mouseState.moved(mouseX, mouseY);
+                        hadInput |= mouseState.moved();
+                    }
 
-                        //clear queue to have 
-                        keyEventQueue.clear();
-                        mouseEventQueue.clear();
+                    //game changes state based on input
+                    try {
+                        game.input(keyboardState, mouseState);
+                    } catch(Exception e) {
+                        e.printStackTrace();
+                        running = false;
+                        continue;
                     }
                     
                     end = System.nanoTime();
                     elapsed = end - begin;
-                    elapsedMs = elapsed / NANO_TO_MILLI;
-
-                    sleep -= elapsedMs;
-                    if (sleep < 0) {
-                        sleep = 0;
-                    }
+                    frameStats.record(Phase.Input, elapsed);
 
                     //-------------------------------------------
                     //update
                     
                     begin = System.nanoTime();
+                    FixedTimestep timestep = fixedTimestep;
+                    double alpha = 0;
+                    boolean redraw;
                     try {
-                        game.update(sleep);
+                        //results of background jobs before the game updates
+                        hadInput |= jobSystem.deliverFinished() > 0;
+                        
+                        if(replay != null) {
+                            //exactly the recorded deltas
+                            for(int i = 0; i < replay.getUpdateCount(); i++) {
+                                recorder = update(replay.getUpdate(i), recorder);
+                            }
+                        } else if(timestep != null) {
+                            //constant delta, as many ticks as real time elapsed
+                            int ticks = timestep.advance(begin);
+                            for(int i = 0; i < ticks; i++) {
+                                recorder = update(timestep.getTickMillis(), recorder);
+                            }
+                            alpha = timestep.getInterpolation();
+                        } else {
+                            //real time elapsed since last update
+                            recorder = update((begin - lastUpdate) / NANO_TO_MILLI, recorder);
+                        }
+                        
+                        //consume the wake-up in any case
+                        boolean wokenUp = framePacer.consumeWakeUp();
+                        redraw = !idleMode || wokenUp || hadInput || needsRedraw();
                     } catch(Exception e) {
                         e.printStackTrace();
                         running = false;
                         continue;
                     }
+                    lastUpdate = begin;
                     end = System.nanoTime();
                     elapsed = end - begin;
-                    elapsedMs = elapsed / NANO_TO_MILLI;
-
-                    sleep -= elapsedMs;
-                    if (sleep < 0) {
-                        sleep = 0;
+                    frameStats.record(Phase.Update, elapsed);
+                    
+                    //-------------------------------------------
+                    //incremental tasks
+                    
+                    if(!taskScheduler.isIdle()) {
+                        begin = System.nanoTime();
+                        try {
+                            redraw |= taskScheduler.run() > 0;
+                        } catch(Exception e) {
+                            e.printStackTrace();
+                            running = false;
+                            continue;
+                        }
+                        end = System.nanoTime();
+                        elapsed = end - begin;
+                        frameStats.record(Phase.Tasks, elapsed);
                     }
 
                     //---------------------------------------------
                     //render
                     
-                    begin = System.nanoTime();
-                    //Do in EDT
-                    SwingUtilities.invokeLater(() -> {
-                        activeRendering();
-                    });
-                    end = System.nanoTime();
-                    elapsed = end - begin;
-                    elapsedMs = elapsed / NANO_TO_MILLI;
-
-                    sleep -= elapsedMs;
-                    if (sleep < 0) {
-                        sleep = 0;
+                    //nothing changed: skip the frame and wait with the idle frame rate
+                    framePacer.setIdle(!redraw);
+                    if(redraw) {
+                        begin = System.nanoTime();
+                        //render thread picks it up
+                        renderThread.submit(alpha, latencyMeasurement ? oldestInput : NO_INPUT);
+                        end = System.nanoTime();
+                        elapsed = end - begin;
+                        frameStats.record(Phase.RenderSubmit, elapsed);
                     }
                     
-                    
                     //-------------------------------------------
                     
-                    //if(debugFrameRate) {
-                    //    System.out.println("sleep: " + sleep);
-                    //}
+                    tick++;
                     
+                    //wait for the deadline of the frame
+                    frameStats.recordDeadlineMiss(framePacer.awaitNextFrame());
+                }
+                if(inputRecorder != null) {
                     try {
-                        Thread.sleep(sleep);
-                    } catch (InterruptedException ex) {
-                        throw new RuntimeException(ex);
+                        stopRecording();
+                    } catch(RuntimeException e) {
+                        e.printStackTrace();
                     }
                 }
+                jobSystem.shutdown();
+                renderThread.shutdown();
                 dispose();
                 return null;
             }
@@ -330,25 +540,121 @@ public class GameLoopFrame extends javax.swing.JFrame implements GameLoop {
         sw.execute();
     }
     
+    private boolean needsRedraw() {
+        return !(game instanceof Redrawable) || ((Redrawable) game).needsRedraw();
+    }
+    
+    private InputRecorder update(double ms, InputRecorder recorder) {
+        game.update(ms);
+        if(recorder != null) {
+            try {
+                recorder.update(ms);
+            } catch(RuntimeException e) {
+                return recordingFailed(recorder, e);
+            }
+        }
+        return recorder;
+    }
+    
+    private InputRecorder recordTick(InputRecorder recorder, long tick) {
+        if(recorder != null) {
+            try {
+                recorder.beginTick(tick);
+            } catch(RuntimeException e) {
+                return recordingFailed(recorder, e);
+            }
+        }
+        return recorder;
+    }
+    
+    private InputRecorder recordInput(InputRecorder recorder, InputRecord record) {
+        return recordInput(recorder, record.type, record.code, record.x, record.y, record.modifiers);
+    }
+    
+    private InputRecorder recordInput(InputRecorder recorder, int type, int code, int x, int y, int modifiers) {
+        if(recorder != null) {
+            try {
+                recorder.input(type, code, x, y, modifiers);
+            } catch(RuntimeException e) {
+                return recordingFailed(recorder, e);
+            }
+        }
+        return recorder;
+    }
+    
+    //a broken log ends the replay, but not the loop
+    private boolean nextReplayTick(InputReplay replay) {
+        try {
+            return replay.nextTick();
+        } catch(RuntimeException e) {
+            e.printStackTrace();
+            try {
+                replay.close();
+            } catch(RuntimeException ex) {
+                //the stream is broken anyway
+            }
+            return false;
+        }
+    }
+    
+    //a failing recorder (e.g. disk full) stops the recording, but not the loop
+    private InputRecorder recordingFailed(InputRecorder recorder, RuntimeException e) {
+        e.printStackTrace();
+        if(inputRecorder == recorder) {
+            inputRecorder = null;
+        }
+        try {
+            recorder.close();
+        } catch(RuntimeException ex) {
+            //the stream is broken anyway
+        }
+        return null;
+    }
+    
     //uses double buffer
-    private void activeRendering() {
+    //inputNanos: dispatch time of the oldest input this frame shows first
+    private void activeRendering(long inputNanos) {
         //see also https://stackoverflow.com/a/200493
         
+        long begin = System.nanoTime();
         Graphics2D g = (Graphics2D) canvas.getBufferStrategy().getDrawGraphics();
         if (g != null) {
             
             if(fixedViewportSize != null) {
-                //render to fixed sized image
-                BufferedImage img = g.getDeviceConfiguration().createCompatibleImage(
-                        fixedViewportSize.width,
-                        fixedViewportSize.height
-                );
+                //internal resolution, the game still renders in viewport coordinates
+                double scale = resolutionScale;
+                int imgW = Math.max(1, (int) Math.round(fixedViewportSize.width * scale));
+                int imgH = Math.max(1, (int) Math.round(fixedViewportSize.height * scale));
+                
+                //render to fixed sized image which is reused every frame
+                GraphicsConfiguration gc = g.getDeviceConfiguration();
+                do {
+                    if(viewportImage == null || 
+                       viewportImage.getWidth() != imgW ||
+                       viewportImage.getHeight() != imgH ||
+                       viewportImage.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE) {
+                        
+                        if(viewportImage != null) {
+                            viewportImage.flush();
+                        }
+                        viewportImage = gc.createCompatibleVolatileImage(imgW, imgH);
+                    }
+                    
+                    //render on the image
+                    Graphics2D ig = viewportImage.createGraphics();
+                    if(scale != 1) {
+                        ig.scale(imgW / (double) fixedViewportSize.width, imgH / (double) fixedViewportSize.height);
+                    }
+                    ig.setClip(0, 0, fixedViewportSize.width, fixedViewportSize.height);
+                    render(ig);
+                    ig.dispose();
+                    
+                //image memory can be lost, e.g. on display mode change
+                } while(viewportImage.contentsLost());
                 
-                //render on the image
-                Graphics2D ig = img.createGraphics();
-                ig.setClip(0, 0, img.getWidth(), img.getHeight());
-                render(ig);
-                ig.dispose();
+                VolatileImage img = viewportImage;
+                int viewportW = fixedViewportSize.width;
+                int viewportH = fixedViewportSize.height;
         
                 //background
                 if(background != null) {
@@ -356,30 +662,56 @@ public class GameLoopFrame extends javax.swing.JFrame implements GameLoop {
                     g.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
                 }
                 
-                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-                //g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-                //g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-                
-                double canvasRatio = canvas.getWidth() / (double) canvas.getHeight();
-                double imgRatio = img.getWidth() / (double) img.getHeight();
+                int dstX;
+                int dstY;
+                int dstW;
+                int dstH;
                 
-                if(canvasRatio >= imgRatio) {
-                    double ratio = (double) canvas.getHeight() / img.getHeight();
-                    int streched = (int) (img.getWidth() * ratio);
-                    int x = (int) Math.round((canvas.getWidth() - streched) / 2.0);
+                if(scaling == Scaling.IntegerNearestNeighbor) {
+                    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
                     
-                    //fill height
-                    g.drawImage(img, x, 0, streched, canvas.getHeight(), null);
-                } else {
-                    //fill width
-                    double ratio = (double) canvas.getWidth()/ img.getWidth();
-                    int streched = (int) (img.getHeight() * ratio);
-                    int y = (int) Math.round((canvas.getHeight() - streched) / 2.0);
+                    //biggest integer factor that fits, at least 1
+                    int factor = Math.max(1, Math.min(
+                            canvas.getWidth() / viewportW, 
+                            canvas.getHeight() / viewportH
+                    ));
+                    dstW = viewportW * factor;
+                    dstH = viewportH * factor;
+                    dstX = (canvas.getWidth() - dstW) / 2;
+                    dstY = (canvas.getHeight() - dstH) / 2;
                     
-                    //fill height
-                    g.drawImage(img, 0, y, canvas.getWidth(), streched, null);
+                } else {
+                    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    //g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+
+                    double canvasRatio = canvas.getWidth() / (double) canvas.getHeight();
+                    double imgRatio = viewportW / (double) viewportH;
+
+                    if(canvasRatio >= imgRatio) {
+                        //fill height
+                        double ratio = (double) canvas.getHeight() / viewportH;
+                        dstW = (int) (viewportW * ratio);
+                        dstH = canvas.getHeight();
+                        dstX = (int) Math.round((canvas.getWidth() - dstW) / 2.0);
+                        dstY = 0;
+                    } else {
+                        //fill width
+                        double ratio = (double) canvas.getWidth()/ viewportW;
+                        dstW = canvas.getWidth();
+                        dstH = (int) (viewportH * ratio);
+                        dstX = 0;
+                        dstY = (int) Math.round((canvas.getHeight() - dstH) / 2.0);
+                    }
                 }
                 
+                g.drawImage(img, dstX, dstY, dstW, dstH, null);
+                
+                //mouse needs it to map canvas to viewport coordinates
+                viewportOffsetX = dstX;
+                viewportOffsetY = dstY;
+                viewportScaleX = dstW / (double) viewportW;
+                viewportScaleY = dstH / (double) viewportH;
+                
             } else {
                 //render direct to canvas
                 g.setClip(0, 0, canvas.getWidth(), canvas.getHeight());
@@ -387,8 +719,24 @@ public class GameLoopFrame extends javax.swing.JFrame implements GameLoop {
             }
             
             g.dispose();
+            long drawn = System.nanoTime();
+            frameStats.record(Phase.Draw, drawn - begin);
+            
+            ResolutionScaler scaler = resolutionScaler;
+            if(scaler != null && fixedViewportSize != null) {
+                //used from the next frame on
+                resolutionScale = scaler.record(drawn - begin, framePacer.getPeriodNanos());
+            }
+            
             canvas.getBufferStrategy().show();
             Toolkit.getDefaultToolkit().sync();
+            long shown = System.nanoTime();
+            frameStats.record(Phase.Show, shown - drawn);
+            frameStats.frameShown(shown);
+            
+            if(inputNanos != NO_INPUT) {
+                inputLatency.record(shown - inputNanos);
+            }
         }
     }
 
@@ -414,10 +762,14 @@ public class GameLoopFrame extends javax.swing.JFrame implements GameLoop {
             g.setColor(Color.black);
             g.drawString("frame: " + frame, 10, 20);
         }
+        if(frameStatsOverlay) {
+            frameStats.render(g, 10, debugFrameRate ? 40 : 20);
+        }
         
         //frame counter
         frame++;
-        if (frame % 30 == 0) {
+        //wraps once per second at the target frame rate
+        if (frame >= framePacer.getTargetFps()) {
             frame = 0;
         }
     }
@@ -440,6 +792,130 @@ public class GameLoopFrame extends javax.swing.JFrame implements GameLoop {
         return frame;
     }
     
+    @Override
+    public void setFixedTimestep(int ticksPerSecond, int maxCatchUpTicks) {
+        if(ticksPerSecond <= 0) {
+            fixedTimestep = null;
+        } else {
+            fixedTimestep = new FixedTimestep(ticksPerSecond, maxCatchUpTicks);
+        }
+    }
+
+    @Override
+    public double getInterpolation() {
+        return interpolation;
+    }
+    
+    @Override
+    public void setTargetFps(int fps) {
+        framePacer.setTargetFps(fps);
+    }
+
+    @Override
+    public int getTargetFps() {
+        return framePacer.getTargetFps();
+    }
+    
+    @Override
+    public FrameStats getFrameStats() {
+        return frameStats;
+    }
+
+    @Override
+    public void setFrameStatsOverlay(boolean visible) {
+        frameStatsOverlay = visible;
+    }
+    
+    @Override
+    public void setLatencyMeasurement(boolean enabled) {
+        latencyMeasurement = enabled;
+    }
+
+    @Override
+    public LatencyHistogram getInputLatency() {
+        return inputLatency;
+    }
+    
+    @Override
+    public void startRecording(OutputStream out) {
+        inputRecorder = new InputRecorder(out);
+    }
+
+    @Override
+    public void stopRecording() {
+        InputRecorder recorder = inputRecorder;
+        inputRecorder = null;
+        if(recorder != null) {
+            recorder.close();
+        }
+    }
+
+    @Override
+    public void startReplay(InputStream in) {
+        inputReplay = new InputReplay(in);
+    }
+
+    @Override
+    public boolean isReplaying() {
+        return inputReplay != null;
+    }
+    
+    @Override
+    public void setIdleMode(int idleFps) {
+        if(idleFps <= 0) {
+            idleMode = false;
+            framePacer.setIdle(false);
+        } else {
+            framePacer.setIdleFps(idleFps);
+            idleMode = true;
+        }
+    }
+
+    @Override
+    public void wakeUp() {
+        framePacer.wakeUp();
+    }
+
+    @Override
+    public void wakeUpIn(double ms) {
+        framePacer.wakeUpAt(System.nanoTime() + (long) (ms * NANO_TO_MILLI));
+    }
+    
+    @Override
+    public <T> JobHandle<T> submit(Callable<T> job) {
+        return jobSystem.submit(job);
+    }
+    
+    @Override
+    public TaskScheduler getTaskScheduler() {
+        return taskScheduler;
+    }
+    
+    @Override
+    public void setDynamicResolution(double minScale, double maxScale) {
+        if(minScale <= 0) {
+            resolutionScaler = null;
+            resolutionScale = 1;
+        } else {
+            ResolutionScaler scaler = new ResolutionScaler(minScale, maxScale);
+            resolutionScale = scaler.getScale();
+            resolutionScaler = scaler;
+        }
+    }
+
+    @Override
+    public double getResolutionScale() {
+        return resolutionScale;
+    }
+    
+    @Override
+    public long getDroppedFrames() {
+        if(renderThread == null) {
+            return 0;
+        }
+        return renderThread.getDroppedFrames();
+    }
+    
     @Override
     public Dimension getScreenSize() {
         if(fixedViewportSize != null) {
@@ -448,10 +924,38 @@ public class GameLoopFrame extends javax.swing.JFrame implements GameLoop {
         return canvas.getSize();
     }
     
+    public Scaling getScaling() {
+        return scaling;
+    }
+
+    /**
+     * How the fixed viewport is scaled to the canvas. Default is bilinear.
+     * @param scaling 
+     */
+    public void setScaling(Scaling scaling) {
+        this.scaling = scaling;
+    }
+    
     public static void loop(String title, int frameWidth, int frameHeight, int viewportWidth, int viewportHeight, Color background, Game game) {
+        loop(title, frameWidth, frameHeight, viewportWidth, viewportHeight, Scaling.Bilinear, background, game);
+    }
+    
+    /**
+     * Runs a game rendered at a fixed viewport size which is scaled to the frame.
+     * @param title
+     * @param frameWidth
+     * @param frameHeight
+     * @param viewportWidth
+     * @param viewportHeight
+     * @param scaling how the viewport is scaled to the canvas
+     * @param background
+     * @param game 
+     */
+    public static void loop(String title, int frameWidth, int frameHeight, int viewportWidth, int viewportHeight, Scaling scaling, Color background, Game game) {
         java.awt.EventQueue.invokeLater(() -> {
             GameLoopFrame f = new GameLoopFrame(title, frameWidth, frameHeight, background, game);
             f.fixedViewportSize = new Dimension(viewportWidth, viewportHeight);
+            f.scaling = scaling;
             f.setVisible(true);
         });
     }
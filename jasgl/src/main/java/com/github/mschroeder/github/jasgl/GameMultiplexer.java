@@ -1,18 +1,57 @@
 package com.github.mschroeder.github.jasgl;
 
+import com.github.mschroeder.github.jasgl.loop.IncrementalTask;
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * With the game multiplexer you can switch in your game between many game states.
+ * <p>
+ * A switch can be animated with a transition (fade or slide). The outgoing
+ * state is rendered once into a snapshot which is composited with the live
+ * incoming state, so a transition costs one blit per frame.
+ * The snapshot is taken on the render thread with the first frame after 
+ * the switch, so a state is never rendered by two threads at once.
+ * <p>
+ * Other states can be pushed as layers over the current state, e.g. a menu
+ * over a map (see {@link #pushLayer(java.lang.String, boolean)}). 
+ * Only the top layer gets input. The layers below are rendered into cached 
+ * images if they are {@link Redrawable} and only rendered again when they 
+ * need a redraw.
+ * <p>
+ * Selected states can keep ticking in the background while another state is
+ * current (see {@link #setBackgroundTicking(java.lang.String, int)}).
+ * They are updated on a fork join pool at the same time as the current state.
+ * Isolation rules for background ticking:
+ * <ul>
+ * <li>A background state must only touch its own objects, never another state,
+ * the multiplexer or the game loop.</li>
+ * <li>The current state must not touch a background state directly during update.
+ * It gets other states with {@link #getGame(java.lang.String)}, which waits
+ * for the background ticks first (as does {@link #switchTo(java.lang.String)}).</li>
+ * <li>At the end of each update all background ticks are joined (barrier),
+ * so input, render and the next frame see a consistent world.</li>
+ * </ul>
  * @author Markus Schr&ouml;der
  */
-public class GameMultiplexer implements Game {
+public class GameMultiplexer implements Game, Redrawable {
 
     private GameLoop gameLoop;
     
@@ -22,8 +61,133 @@ public class GameMultiplexer implements Game {
     //the current game running
     private String currentGame;
     
+    //the first frame after a switch is always rendered
+    private boolean switched;
+    
+    //preloading states with names
+    private Map<String, Preload> name2preload;
+    //switched to as soon as it is ready
+    private String pendingSwitch;
+    private int warmUpTicks;
+    
+    //least recently used first
+    private LinkedHashSet<String> usage;
+    private Set<String> suspended;
+    //no budget if <= 0
+    private long memoryBudget;
+    
+    //states ticking while they are not current
+    private Map<String, BackgroundTicking> name2background;
+    private ForkJoinPool backgroundPool;
+    private long updates;
+    //background time of the current game that was not ticked yet
+    private double catchUpMillis;
+    //thread calling update, waits for the background ticks
+    private volatile Thread loopThread;
+    
+    //layers over the current game, bottom first (read by the render thread)
+    private List<Layer> layers;
+    //the current game below the layers
+    private Layer baseLayer;
+    
+    //running transition, null if there is none (read by the render thread)
+    private volatile TransitionState transition;
+    //used by switchTo(name)
+    private Transition defaultTransition;
+    private double defaultTransitionMillis;
+    //reused for the next snapshot (render thread)
+    private BufferedImage snapshotImage;
+    
+    /**
+     * How a switch is animated.
+     */
+    public enum Transition {
+        /**
+         * The outgoing state fades out over the incoming one.
+         */
+        Fade,
+        /**
+         * The outgoing state moves out to the left, the incoming one follows from the right.
+         */
+        SlideLeft,
+        /**
+         * The outgoing state moves out to the right, the incoming one follows from the left.
+         */
+        SlideRight,
+        /**
+         * The outgoing state moves out to the top, the incoming one follows from the bottom.
+         */
+        SlideUp,
+        /**
+         * The outgoing state moves out to the bottom, the incoming one follows from the top.
+         */
+        SlideDown
+    }
+    
     public GameMultiplexer() {
         name2game = new HashMap<>();
+        name2preload = new HashMap<>();
+        usage = new LinkedHashSet<>();
+        suspended = new HashSet<>();
+        name2background = new LinkedHashMap<>();
+        layers = new CopyOnWriteArrayList<>();
+        baseLayer = new Layer(null, false);
+    }
+    
+    //state of a preload
+    private static class Preload {
+        //written by the worker
+        volatile double loadProgress;
+        boolean started;
+        boolean loaded;
+        boolean failed;
+        int warmedUp;
+        //scheduled until the warm-up is done
+        IncrementalTask warmUp;
+        //from then on the memory budget may suspend it
+        boolean switchedTo;
+    }
+    
+    //a game rendered over the ones below
+    private static class Layer {
+        final String name;
+        //lower layers are not updated
+        final boolean pauseBelow;
+        //last rendering if the game is redrawable and covered
+        BufferedImage cache;
+        volatile boolean dirty = true;
+
+        Layer(String name, boolean pauseBelow) {
+            this.name = name;
+            this.pauseBelow = pauseBelow;
+        }
+    }
+    
+    //a running transition
+    private static class TransitionState {
+        final Transition type;
+        final double duration;
+        //the outgoing state until the render thread took its snapshot
+        volatile Game outgoing;
+        //written and read by the render thread
+        BufferedImage snapshot;
+        volatile double elapsed;
+
+        TransitionState(Transition type, double duration, Game outgoing) {
+            this.type = type;
+            this.duration = duration;
+            this.outgoing = outgoing;
+        }
+    }
+    
+    //state of a background ticking game
+    private static class BackgroundTicking {
+        int interval;
+        //staggers the states over the frames
+        int phase;
+        //time since its last tick
+        double ms;
+        ForkJoinTask<?> task;
     }
 
     //==========================================================================
@@ -34,27 +198,308 @@ public class GameMultiplexer implements Game {
         for(Game game : name2game.values()) {
             game.init(gameLoop);
         }
+        //preloads requested before there was a game loop,
+        //a finished one may suspend others (memory budget), so over a copy
+        for(String name : new ArrayList<>(name2preload.keySet())) {
+            if(name2preload.containsKey(name)) {
+                startPreload(name);
+            }
+        }
     }
 
     @Override
     public void input(Keyboard keyboard, Mouse mouse) {
-        if(validGameName(currentGame)) {
-            name2game.get(currentGame).input(keyboard, mouse);
+        if(pendingSwitch != null && isReady(pendingSwitch)) {
+            String name = pendingSwitch;
+            pendingSwitch = null;
+            switchTo(name);
+        }
+
+        //only the top layer gets input
+        Game top = getTopGame();
+        if(top != null) {
+            top.input(keyboard, mouse);
         }
     }
 
     @Override
     public void update(double ms) {
-        if(validGameName(currentGame)) {
-            name2game.get(currentGame).update(ms);
+        loopThread = Thread.currentThread();
+        updates++;
+        
+        TransitionState ts = transition;
+        if(ts != null) {
+            ts.elapsed += ms;
+            if(ts.elapsed >= ts.duration) {
+                transition = null;
+            }
         }
+        
+        forkBackground(ms);
+        try {
+            //from the highest layer pausing the ones below
+            int from = -1;
+            for(int i = layers.size() - 1; i >= 0; i--) {
+                if(layers.get(i).pauseBelow) {
+                    from = i;
+                    break;
+                }
+            }
+            for(int i = from; i < layers.size(); i++) {
+                Layer layer = i < 0 ? baseLayer : layers.get(i);
+                Game game = getGameOf(layer);
+                if(game == null) {
+                    continue;
+                }
+                if(layer == baseLayer && catchUpMillis > 0) {
+                    //the first update after a switch also covers the time 
+                    //it was not ticked in the background
+                    game.update(ms + catchUpMillis);
+                    catchUpMillis = 0;
+                } else {
+                    game.update(ms);
+                }
+            }
+            
+            //covered layers tell now if their cache is stale
+            if(!layers.isEmpty()) {
+                for(int i = -1; i < layers.size() - 1; i++) {
+                    Layer layer = i < 0 ? baseLayer : layers.get(i);
+                    Game game = getGameOf(layer);
+                    if(!(game instanceof Redrawable) || ((Redrawable) game).needsRedraw()) {
+                        layer.dirty = true;
+                    }
+                }
+            }
+        } catch(RuntimeException | Error ex) {
+            //the background ticks are joined anyway, their failures do not hide this one
+            RuntimeException background = joinBackground();
+            if(background != null) {
+                ex.addSuppressed(background);
+            }
+            throw ex;
+        }
+        //barrier: the frame ends with a consistent world
+        awaitBackground();
     }
 
     @Override
     public void render(Graphics2D g) {
-        if(validGameName(currentGame)) {
-            name2game.get(currentGame).render(g);
+        int top = layers.size() - 1;
+        for(int i = -1; i <= top; i++) {
+            Layer layer = i < 0 ? baseLayer : layers.get(i);
+            Game game = getGameOf(layer);
+            if(game == null) {
+                continue;
+            }
+            TransitionState ts = transition;
+            if(i < 0 && ts != null) {
+                renderTransition(game, ts, g);
+            } else if(i == top || !(game instanceof Redrawable)) {
+                //live
+                game.render(g);
+            } else {
+                renderCached(game, layer, g);
+            }
+        }
+    }
+    
+    //render thread: live incoming state and the snapshot of the outgoing one
+    private void renderTransition(Game game, TransitionState ts, Graphics2D g) {
+        if(ts.snapshot == null) {
+            ts.snapshot = snapshot(ts.outgoing, g);
+            ts.outgoing = null;
+        }
+        
+        double p = Math.min(1, ts.elapsed / ts.duration);
+        int w = ts.snapshot.getWidth();
+        int h = ts.snapshot.getHeight();
+        
+        int dx = 0;
+        int dy = 0;
+        switch(ts.type) {
+            case SlideLeft: dx = -(int) Math.round(p * w); break;
+            case SlideRight: dx = (int) Math.round(p * w); break;
+            case SlideUp: dy = -(int) Math.round(p * h); break;
+            case SlideDown: dy = (int) Math.round(p * h); break;
+        }
+        
+        if(ts.type == Transition.Fade) {
+            game.render(g);
+            Composite composite = g.getComposite();
+            g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, (float) (1 - p)));
+            g.drawImage(ts.snapshot, 0, 0, null);
+            g.setComposite(composite);
+        } else {
+            //incoming state follows the outgoing one
+            int inX = dx == 0 ? 0 : (dx < 0 ? dx + w : dx - w);
+            int inY = dy == 0 ? 0 : (dy < 0 ? dy + h : dy - h);
+            g.translate(inX, inY);
+            game.render(g);
+            g.translate(-inX, -inY);
+            g.drawImage(ts.snapshot, dx, dy, null);
+        }
+    }
+    
+    //render thread
+    private void renderCached(Game game, Layer layer, Graphics2D g) {
+        Dimension size = gameLoop.getScreenSize();
+        int w = Math.max(1, size.width);
+        int h = Math.max(1, size.height);
+        if(layer.cache == null || layer.cache.getWidth() != w || layer.cache.getHeight() != h) {
+            layer.cache = g.getDeviceConfiguration().createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+            layer.dirty = true;
+        }
+        if(layer.dirty) {
+            //cleared before, so a change meanwhile is not lost
+            layer.dirty = false;
+            Graphics2D cg = layer.cache.createGraphics();
+            cg.setComposite(AlphaComposite.Clear);
+            cg.fillRect(0, 0, w, h);
+            cg.setComposite(AlphaComposite.SrcOver);
+            cg.setClip(0, 0, w, h);
+            game.render(cg);
+            cg.dispose();
+        }
+        g.drawImage(layer.cache, 0, 0, null);
+    }
+    
+    /**
+     * Asks the current game if it is {@link Redrawable}, else it is always redrawn.
+     * @return 
+     */
+    @Override
+    public boolean needsRedraw() {
+        if(switched || transition != null) {
+            switched = false;
+            return true;
+        }
+        for(int i = -1; i < layers.size() - 1; i++) {
+            Layer layer = i < 0 ? baseLayer : layers.get(i);
+            if(layer.dirty) {
+                return true;
+            }
         }
+        Game game = getTopGame();
+        return !(game instanceof Redrawable) || ((Redrawable) game).needsRedraw();
+    }
+    
+    //==========================================================================
+    
+    /**
+     * Pushes a registered game as a layer over the current game and 
+     * the other layers. It gets the input from now on.
+     * A suspended game is resumed first. A game which is still preloading
+     * is not pushed (see {@link #isReady(java.lang.String)}).
+     * Layers are never suspended by the memory budget.
+     * @param nameOfGame
+     * @param pauseBelow if true, the games below are not updated while it is pushed
+     * @return this instance
+     */
+    public GameMultiplexer pushLayer(String nameOfGame, boolean pauseBelow) {
+        if(!validGameName(nameOfGame) || isLoading(nameOfGame)) {
+            return this;
+        }
+        awaitBackground();
+        String belowName = getTopName();
+        Game below = getTopGame();
+        
+        //its cache was not kept up to date while it was on top
+        Layer covered = layers.isEmpty() ? baseLayer : layers.get(layers.size() - 1);
+        covered.dirty = true;
+        
+        Game game = name2game.get(nameOfGame);
+        //reload released assets before it runs
+        if(suspended.remove(nameOfGame)) {
+            ((Suspendable) game).resume();
+        }
+        
+        layers.add(new Layer(nameOfGame, pauseBelow));
+        
+        if(game instanceof GameState) {
+            ((GameState) game).enter(belowName, below);
+        }
+        switched = true;
+        
+        markUsed(nameOfGame);
+        enforceMemoryBudget();
+        return this;
+    }
+    
+    /**
+     * Removes the top layer. 
+     * @return name of the removed layer or null if there are no layers
+     */
+    public String popLayer() {
+        if(layers.isEmpty()) {
+            return null;
+        }
+        awaitBackground();
+        Layer layer = layers.remove(layers.size() - 1);
+        
+        Game game = name2game.get(layer.name);
+        if(game instanceof GameState) {
+            ((GameState) game).leave(getTopName(), getTopGame());
+        }
+        switched = true;
+        return layer.name;
+    }
+    
+    /**
+     * Names of the layers over the current game, bottom first.
+     * @return 
+     */
+    public List<String> getLayers() {
+        List<String> names = new ArrayList<>();
+        for(Layer layer : layers) {
+            names.add(layer.name);
+        }
+        return names;
+    }
+    
+    public boolean isLayer(String nameOfGame) {
+        for(Layer layer : layers) {
+            if(layer.name.equals(nameOfGame)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    //most recently used, from now on the memory budget may suspend it
+    private void markUsed(String name) {
+        usage.remove(name);
+        usage.add(name);
+        Preload preload = name2preload.get(name);
+        if(preload != null) {
+            preload.switchedTo = true;
+            //it runs live now, the warm-up must not render it on the loop thread
+            if(preload.warmUp != null) {
+                cancelWarmUp(preload);
+                preload.warmedUp = warmUpTicks;
+            }
+        }
+    }
+    
+    //load() still runs on a worker
+    private boolean isLoading(String name) {
+        Preload preload = name2preload.get(name);
+        return preload != null && preload.started && !preload.loaded && !preload.failed;
+    }
+    
+    //the game getting the input
+    private String getTopName() {
+        return layers.isEmpty() ? currentGame : layers.get(layers.size() - 1).name;
+    }
+    
+    private Game getTopGame() {
+        String name = getTopName();
+        return name == null ? null : name2game.get(name);
+    }
+    
+    private Game getGameOf(Layer layer) {
+        String name = layer == baseLayer ? currentGame : layer.name;
+        return name == null ? null : name2game.get(name);
     }
     
     //==========================================================================
@@ -71,11 +516,23 @@ public class GameMultiplexer implements Game {
     }
     
     public GameMultiplexer removeGame(String name) {
+        awaitBackground();
         name2game.remove(name);
+        name2background.remove(name);
+        cancelWarmUp(name2preload.remove(name));
+        usage.remove(name);
+        suspended.remove(name);
         return this;
     }
     
+    /**
+     * The registered game. On the loop thread it waits for background ticks
+     * first, so the game can be touched safely.
+     * @param name
+     * @return 
+     */
     public Game getGame(String name) {
+        awaitBackground();
         return name2game.get(name);
     }
     
@@ -98,10 +555,24 @@ public class GameMultiplexer implements Game {
     
     /**
      * Switch to another registered game.
+     * The default transition is used (see {@link #setDefaultTransition(com.github.mschroeder.github.jasgl.GameMultiplexer.Transition, double)}).
      * @param nameOfGame 
      * @return this instance
      */
     public GameMultiplexer switchTo(String nameOfGame) {
+        return switchTo(nameOfGame, defaultTransition, defaultTransitionMillis);
+    }
+    
+    /**
+     * Switch to another registered game with a transition.
+     * @param nameOfGame
+     * @param transition how it is animated, null switches at once
+     * @param millis duration of the transition
+     * @return this instance
+     */
+    public GameMultiplexer switchTo(String nameOfGame, Transition transition, double millis) {
+        awaitBackground();
+        
         Game oldGame = null;
         Game nextGame = null;
         
@@ -118,6 +589,11 @@ public class GameMultiplexer implements Game {
         //transition
         if(oldGame != null && nextGame != null) {
             
+            //the render thread captures the outgoing state once
+            if(transition != null && millis > 0 && gameLoop != null) {
+                this.transition = new TransitionState(transition, millis, oldGame);
+            }
+            
             //leave old game
             if(oldGame instanceof GameState) {
                 ((GameState)oldGame).leave(nameOfGame, nextGame);
@@ -129,12 +605,446 @@ public class GameMultiplexer implements Game {
             }
         }
         
+        //reload released assets before it runs
+        if(nextGame != null && suspended.remove(nameOfGame)) {
+            ((Suspendable) nextGame).resume();
+        }
+        
         //switch
         this.currentGame = nameOfGame;
+        switched = true;
+        baseLayer.dirty = true;
+        
+        if(nameOfGame != null) {
+            markUsed(nameOfGame);
+            
+            //background time not ticked yet goes into its next update
+            BackgroundTicking bt = name2background.get(nameOfGame);
+            catchUpMillis = bt != null ? bt.ms : 0;
+            if(bt != null) {
+                bt.ms = 0;
+            }
+        }
+        enforceMemoryBudget();
+        
+        return this;
+    }
+    
+    /**
+     * Starts loading a registered game state in the background, if it is
+     * {@link Loadable}. Afterwards it is warmed up with some ticks
+     * (see {@link #setWarmUpTicks(int)}) on the loop thread.
+     * Calling it again for the same state does nothing.
+     * @param nameOfGame
+     * @return this instance
+     */
+    public GameMultiplexer preload(String nameOfGame) {
+        if(!validGameName(nameOfGame) || name2preload.containsKey(nameOfGame)) {
+            return this;
+        }
+        name2preload.put(nameOfGame, new Preload());
+        if(gameLoop != null) {
+            startPreload(nameOfGame);
+        }
+        return this;
+    }
+    
+    /**
+     * Preloads a game state and switches to it as soon as it is ready.
+     * Until then the current state keeps running, e.g. a loading screen 
+     * showing {@link #getProgress(java.lang.String)}.
+     * @param nameOfGame
+     * @return this instance
+     */
+    public GameMultiplexer switchWhenReady(String nameOfGame) {
+        preload(nameOfGame);
+        pendingSwitch = nameOfGame;
+        return this;
+    }
+    
+    /**
+     * If a game state is loaded and warmed up. States which are not 
+     * {@link Loadable} and need no warm-up are always ready.
+     * @param nameOfGame
+     * @return false if it is not ready or loading failed
+     */
+    public boolean isReady(String nameOfGame) {
+        if(!validGameName(nameOfGame)) {
+            return false;
+        }
+        Preload preload = name2preload.get(nameOfGame);
+        if(preload == null) {
+            return !(name2game.get(nameOfGame) instanceof Loadable) && warmUpTicks == 0;
+        }
+        return preload.loaded && preload.warmedUp >= warmUpTicks;
+    }
+    
+    /**
+     * The progress of preloading a game state for a loading screen.
+     * Loading counts for 90%, warming up for 10% if there are warm-up ticks.
+     * @param nameOfGame
+     * @return value from 0 to 1
+     */
+    public double getProgress(String nameOfGame) {
+        if(isReady(nameOfGame)) {
+            return 1;
+        }
+        Preload preload = name2preload.get(nameOfGame);
+        if(preload == null) {
+            return 0;
+        }
+        double loadShare = warmUpTicks > 0 ? 0.9 : 1;
+        if(!preload.loaded) {
+            return Math.min(1, Math.max(0, preload.loadProgress)) * loadShare;
+        }
+        return loadShare + (1 - loadShare) * preload.warmedUp / warmUpTicks;
+    }
+    
+    /**
+     * If loading a game state threw an exception.
+     * @param nameOfGame
+     * @return 
+     */
+    public boolean isFailed(String nameOfGame) {
+        Preload preload = name2preload.get(nameOfGame);
+        return preload != null && preload.failed;
+    }
+    
+    public int getWarmUpTicks() {
+        return warmUpTicks;
+    }
+
+    /**
+     * After loading, a preloaded state is ticked this many times with 
+     * update(0) and rendered to a scratch image, so that the JIT compiled its 
+     * code and its caches are filled before it is shown. The ticks run as an
+     * incremental task within the budget of the task scheduler. Default is 0.
+     * @param warmUpTicks 
+     */
+    public void setWarmUpTicks(int warmUpTicks) {
+        this.warmUpTicks = warmUpTicks;
+    }
+    
+    private void startPreload(String name) {
+        Preload preload = name2preload.get(name);
+        if(preload.started) {
+            return;
+        }
+        preload.started = true;
+        
+        Game game = name2game.get(name);
+        if(!(game instanceof Loadable)) {
+            loaded(game, preload);
+            return;
+        }
+        
+        gameLoop.submit(() -> {
+            ((Loadable) game).load(p -> preload.loadProgress = p);
+            return null;
+        }).onComplete(v -> {
+            loaded(game, preload);
+        }).onError(t -> {
+            t.printStackTrace();
+            preload.failed = true;
+            if(name.equals(pendingSwitch)) {
+                pendingSwitch = null;
+            }
+        });
+    }
+    
+    //on the loop thread
+    private void loaded(Game game, Preload preload) {
+        preload.loaded = true;
+        //load brought the assets back
+        if(game instanceof Loadable) {
+            suspended.remove(getName(game));
+        }
+        //the loaded assets count now
+        enforceMemoryBudget();
+        if(warmUpTicks <= 0 || preload.switchedTo) {
+            return;
+        }
         
+        Dimension size = gameLoop.getScreenSize();
+        BufferedImage scratch = new BufferedImage(
+                Math.max(1, size.width), Math.max(1, size.height), 
+                BufferedImage.TYPE_INT_ARGB
+        );
+        preload.warmUp = new IncrementalTask() {
+            @Override
+            public boolean step() {
+                game.update(0);
+                Graphics2D g = scratch.createGraphics();
+                g.setClip(0, 0, scratch.getWidth(), scratch.getHeight());
+                game.render(g);
+                g.dispose();
+                preload.warmedUp++;
+                if(preload.warmedUp >= warmUpTicks) {
+                    preload.warmUp = null;
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public int remainingSteps() {
+                return warmUpTicks - preload.warmedUp;
+            }
+        };
+        gameLoop.getTaskScheduler().schedule(preload.warmUp, 0);
+    }
+    
+    //a suspended or removed state must not be ticked anymore
+    private void cancelWarmUp(Preload preload) {
+        if(preload != null && preload.warmUp != null) {
+            gameLoop.getTaskScheduler().cancel(preload.warmUp);
+            preload.warmUp = null;
+        }
+    }
+    
+    /**
+     * Suspends the least recently used {@link Suspendable} states until the
+     * memory estimate of the states is within the budget. 
+     * The current state, the layers, a pending switch and preloaded states 
+     * which were not switched to yet are not suspended.
+     * It is checked after every switch and whenever a preload finished loading.
+     * @param bytes budget, a value &lt;= 0 means no budget
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+        enforceMemoryBudget();
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+    
+    /**
+     * The memory estimate of a state.
+     * @param nameOfGame
+     * @return bytes or -1 if the state is not {@link Suspendable}
+     */
+    public long getMemoryEstimate(String nameOfGame) {
+        Game game = name2game.get(nameOfGame);
+        if(!(game instanceof Suspendable)) {
+            return -1;
+        }
+        return ((Suspendable) game).estimateMemory();
+    }
+    
+    /**
+     * The memory estimate of all {@link Suspendable} states.
+     * @return bytes
+     */
+    public long getMemoryEstimate() {
+        long sum = 0;
+        for(Game game : name2game.values()) {
+            if(game instanceof Suspendable) {
+                sum += ((Suspendable) game).estimateMemory();
+            }
+        }
+        return sum;
+    }
+    
+    public boolean isSuspended(String nameOfGame) {
+        return suspended.contains(nameOfGame);
+    }
+    
+    /**
+     * Suspends a state now if it is {@link Suspendable} and not running.
+     * @param nameOfGame
+     * @return true if it was suspended
+     */
+    public boolean suspend(String nameOfGame) {
+        awaitBackground();
+        Game game = name2game.get(nameOfGame);
+        if(!(game instanceof Suspendable) || isLayer(nameOfGame) ||
+           nameOfGame.equals(currentGame) || nameOfGame.equals(pendingSwitch) || 
+           suspended.contains(nameOfGame) || isCapturing(nameOfGame)) {
+            return false;
+        }
+        if(isLoading(nameOfGame)) {
+            return false;
+        }
+        //has to be loaded again
+        cancelWarmUp(name2preload.remove(nameOfGame));
+        ((Suspendable) game).suspend();
+        suspended.add(nameOfGame);
+        return true;
+    }
+    
+    private void enforceMemoryBudget() {
+        if(memoryBudget <= 0) {
+            return;
+        }
+        long total = getMemoryEstimate();
+        
+        //never used states first, then least recently used
+        List<String> order = new ArrayList<>();
+        for(String name : name2game.keySet()) {
+            if(!usage.contains(name)) {
+                order.add(name);
+            }
+        }
+        order.addAll(usage);
+        
+        Iterator<String> iter = order.iterator();
+        while(total > memoryBudget && iter.hasNext()) {
+            String name = iter.next();
+            Preload preload = name2preload.get(name);
+            if(preload != null && !preload.switchedTo) {
+                //the caller asked for it to be ready
+                continue;
+            }
+            long before = getMemoryEstimate(name);
+            if(suspend(name)) {
+                total -= before - getMemoryEstimate(name);
+            }
+        }
+    }
+    
+    /**
+     * Lets a state tick in the background while it is not current, 
+     * at a reduced rate: every n-th frame it is updated once with the time 
+     * elapsed since its last tick. Suspended states do not tick.
+     * Read the isolation rules of this class.
+     * @param nameOfGame
+     * @param everyNthFrame 1 ticks every frame, a value &lt;= 0 disables it
+     * @return this instance
+     */
+    public GameMultiplexer setBackgroundTicking(String nameOfGame, int everyNthFrame) {
+        awaitBackground();
+        if(everyNthFrame <= 0) {
+            name2background.remove(nameOfGame);
+            return this;
+        }
+        BackgroundTicking bt = name2background.get(nameOfGame);
+        if(bt == null) {
+            bt = new BackgroundTicking();
+            bt.phase = name2background.size();
+            name2background.put(nameOfGame, bt);
+        }
+        bt.interval = everyNthFrame;
         return this;
     }
     
+    public boolean isBackgroundTicking(String nameOfGame) {
+        return name2background.containsKey(nameOfGame);
+    }
+    
+    /**
+     * Waits until the background ticks of this frame are done.
+     * Only waits if called on the loop thread, e.g. before the current state
+     * touches another state in update.
+     */
+    public void awaitBackground() {
+        if(Thread.currentThread() != loopThread) {
+            return;
+        }
+        RuntimeException error = joinBackground();
+        if(error != null) {
+            throw error;
+        }
+    }
+    
+    //joins all background ticks, returns the first failure (others suppressed)
+    private RuntimeException joinBackground() {
+        RuntimeException error = null;
+        for(BackgroundTicking bt : name2background.values()) {
+            ForkJoinTask<?> task = bt.task;
+            if(task == null) {
+                continue;
+            }
+            bt.task = null;
+            try {
+                task.join();
+            } catch(RuntimeException ex) {
+                if(error == null) {
+                    error = ex;
+                } else {
+                    error.addSuppressed(ex);
+                }
+            }
+        }
+        return error;
+    }
+    
+    private void forkBackground(double ms) {
+        if(name2background.isEmpty()) {
+            return;
+        }
+        for(Entry<String, BackgroundTicking> e : name2background.entrySet()) {
+            String name = e.getKey();
+            BackgroundTicking bt = e.getValue();
+            if(name.equals(currentGame) || isLayer(name) || !validGameName(name) || suspended.contains(name)) {
+                continue;
+            }
+            if(isLoading(name)) {
+                continue;
+            }
+            bt.ms += ms;
+            if(isCapturing(name)) {
+                //catches up when the render thread has its snapshot
+                continue;
+            }
+            if((updates + bt.phase) % bt.interval != 0) {
+                continue;
+            }
+            
+            Game game = name2game.get(name);
+            double elapsed = bt.ms;
+            bt.ms = 0;
+            if(backgroundPool == null) {
+                backgroundPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+            }
+            bt.task = backgroundPool.submit(() -> game.update(elapsed));
+        }
+    }
+    
+    /**
+     * The transition used by {@link #switchTo(java.lang.String)}, also when
+     * a TiledGame teleports the player.
+     * @param transition null switches at once (default)
+     * @param millis duration of the transition
+     */
+    public void setDefaultTransition(Transition transition, double millis) {
+        this.defaultTransition = transition;
+        this.defaultTransitionMillis = millis;
+    }
+    
+    public boolean isTransitionRunning() {
+        return transition != null;
+    }
+    
+    //the render thread still has to take the snapshot of this outgoing state
+    private boolean isCapturing(String name) {
+        TransitionState ts = transition;
+        return ts != null && ts.outgoing != null && ts.outgoing == name2game.get(name);
+    }
+    
+    //render thread: renders the game into the snapshot image
+    private BufferedImage snapshot(Game game, Graphics2D target) {
+        Dimension size = gameLoop.getScreenSize();
+        int w = Math.max(1, size.width);
+        int h = Math.max(1, size.height);
+        
+        //only the render thread draws from it, the previous transition is over
+        BufferedImage img = snapshotImage;
+        if(img == null || img.getWidth() != w || img.getHeight() != h) {
+            img = target.getDeviceConfiguration().createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+        }
+        snapshotImage = img;
+        
+        Graphics2D g = img.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, w, h);
+        g.setComposite(AlphaComposite.SrcOver);
+        g.setClip(0, 0, w, h);
+        game.render(g);
+        g.dispose();
+        return img;
+    }
+    
     private boolean validGameName(String name) {
         return name != null && name2game.containsKey(name);
     }
@@ -0,0 +1,630 @@
+package com.github.mschroeder.github.jasgl;
+
+import com.github.mschroeder.github.jasgl.loop.FixedTimestep;
+import com.github.mschroeder.github.jasgl.loop.FramePacer;
+import com.github.mschroeder.github.jasgl.loop.FrameStats;
+import com.github.mschroeder.github.jasgl.loop.FrameStats.Phase;
+import com.github.mschroeder.github.jasgl.loop.InputRecord;
+import com.github.mschroeder.github.jasgl.loop.InputRecorder;
+import com.github.mschroeder.github.jasgl.loop.InputReplay;
+import com.github.mschroeder.github.jasgl.loop.InputRingBuffer;
+import com.github.mschroeder.github.jasgl.loop.JobHandle;
+import com.github.mschroeder.github.jasgl.loop.JobSystem;
+import com.github.mschroeder.github.jasgl.loop.KeyboardState;
+import com.github.mschroeder.github.jasgl.loop.LatencyHistogram;
+import com.github.mschroeder.github.jasgl.loop.MouseState;
+import com.github.mschroeder.github.jasgl.loop.TaskScheduler;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+
+/**
+ * A game loop without frame, canvas and EDT.
+ * It drives a game either unthrottled (as fast as possible with a simulated
+ * delta per tick) or throttled to real time.
+ * Frames are rendered into a reused off-screen image or not at all.
+ * Input is scripted with the press and release methods or an {@link InputScript}.
+ * Use it for simulations in tests or to tick a game on a server without display.
+ * Call {@link #shutdown()} when the loop is not needed anymore, so the
+ * workers of its job system stop.
+ * @author Markus Schr&ouml;der
+ */
+public class HeadlessGameLoop implements GameLoop {
+
+    private static final int DEFAULT_FPS = 30;
+    private static final int INPUT_BUFFER_CAPACITY = 1024;
+    private static final double DEFAULT_TASK_BUDGET_MILLIS = 2;
+    private static final Color TRANSPARENT = new Color(0, 0, 0, 0);
+
+    private Game game;
+    private Dimension screenSize;
+    private Color background;
+
+    private boolean initialized;
+    private volatile boolean running;
+    private boolean debug;
+    private boolean frameStatsOverlay;
+    private FrameStats frameStats = new FrameStats();
+    private boolean latencyMeasurement;
+    private LatencyHistogram inputLatency = new LatencyHistogram();
+
+    //render to image or skip rendering
+    private boolean rendering;
+    private BufferedImage image;
+
+    //real time or simulated time
+    private boolean throttled;
+    private FramePacer framePacer = new FramePacer(DEFAULT_FPS);
+    private FixedTimestep fixedTimestep;
+    //skip rendering when nothing changed
+    private boolean idleMode;
+    private JobSystem jobSystem = new JobSystem(framePacer::wakeUp);
+    private TaskScheduler taskScheduler = new TaskScheduler(DEFAULT_TASK_BUDGET_MILLIS);
+    private double interpolation;
+
+    private int frame;
+    private long ticks;
+
+    private KeyboardState keyboardState = new KeyboardState();
+    private MouseState mouseState = new MouseState();
+    private InputRingBuffer inputBuffer = new InputRingBuffer(INPUT_BUFFER_CAPACITY);
+    private InputRecord inputRecord = new InputRecord();
+    private InputRecorder inputRecorder;
+    private InputReplay inputReplay;
+    //the state was fed by the replay in the last tick
+    private boolean replaying;
+    //where scripted input moved the mouse to
+    private int scriptedMouseX;
+    private int scriptedMouseY;
+    private InputScript inputScript;
+
+    /**
+     * Creates a headless loop that does not render.
+     * @param game
+     * @param width screen width the game sees
+     * @param height screen height the game sees
+     */
+    public HeadlessGameLoop(Game game, int width, int height) {
+        this.game = game;
+        this.screenSize = new Dimension(width, height);
+    }
+
+    //==========================================================================
+
+    /**
+     * Runs the given number of ticks.
+     * Each tick is input, update and (if enabled) render.
+     * Unthrottled, every tick updates the game with the tick delta and the
+     * method returns as fast as possible.
+     * @param ticks number of ticks, negative runs until close() is called
+     */
+    public void run(long ticks) {
+        running = true;
+        framePacer.start();
+        for(long i = 0; running && (ticks < 0 || i < ticks); i++) {
+            tick();
+
+            if(throttled) {
+                //wait till the next tick in real time
+                frameStats.recordDeadlineMiss(framePacer.awaitNextFrame());
+                if(Thread.currentThread().isInterrupted()) {
+                    running = false;
+                }
+            }
+        }
+        running = false;
+    }
+
+    /**
+     * Runs one tick: input, update and render.
+     * Exceptions of the game are not caught.
+     */
+    public void tick() {
+        if(!initialized) {
+            initialized = true;
+            game.init(this);
+        }
+
+        InputReplay replay = inputReplay;
+        if(replay != null && !nextReplayTick(replay)) {
+            //the replayed session is over
+            inputReplay = null;
+            close();
+            return;
+        }
+        InputRecorder recorder = recordTick(inputRecorder, ticks);
+
+        //input
+        long begin = System.nanoTime();
+        if(inputScript != null && replay == null) {
+            inputScript.beforeTick(ticks, this);
+        }
+        keyboardState.beginFrame();
+        mouseState.beginFrame();
+        if(replaying != (replay != null)) {
+            //keys hold by the other input source are let go
+            replaying = replay != null;
+            keyboardState.releaseAll();
+            mouseState.releaseAll();
+        }
+        long oldestInput = 0;
+        boolean hasInput = false;
+        while(inputBuffer.poll(inputRecord)) {
+            if(replay != null) {
+                //live input is ignored while replaying
+                continue;
+            }
+            inputRecord.applyTo(keyboardState, mouseState);
+            recorder = recordInput(recorder, inputRecord);
+            if(!hasInput) {
+                hasInput = true;
+                oldestInput = inputRecord.nanos;
+            }
+        }
+        //something to show in idle mode
+        boolean changed = hasInput;
+        if(replay != null) {
+            changed |= replay.getInputCount() > 0;
+            for(int i = 0; i < replay.getInputCount(); i++) {
+                replay.getInput(i).applyTo(keyboardState, mouseState);
+                recorder = recordInput(recorder, replay.getInput(i));
+            }
+        }
+        game.input(keyboardState, mouseState);
+        long end = System.nanoTime();
+        frameStats.record(Phase.Input, end - begin);
+
+        //results of background jobs before the game updates
+        changed |= jobSystem.deliverFinished() > 0;
+        
+        //update
+        begin = end;
+        double ms = getTickMillis();
+        if(replay != null) {
+            //exactly the recorded deltas
+            for(int i = 0; i < replay.getUpdateCount(); i++) {
+                recorder = update(replay.getUpdate(i), recorder);
+            }
+            interpolation = 0;
+        } else if(throttled && fixedTimestep != null) {
+            int n = fixedTimestep.advance(System.nanoTime());
+            for(int i = 0; i < n; i++) {
+                recorder = update(ms, recorder);
+            }
+            interpolation = fixedTimestep.getInterpolation();
+        } else {
+            recorder = update(ms, recorder);
+            interpolation = 0;
+        }
+        end = System.nanoTime();
+        frameStats.record(Phase.Update, end - begin);
+        
+        //incremental tasks
+        if(!taskScheduler.isIdle()) {
+            begin = end;
+            changed |= taskScheduler.run() > 0;
+            end = System.nanoTime();
+            frameStats.record(Phase.Tasks, end - begin);
+        }
+
+        //render
+        boolean wokenUp = framePacer.consumeWakeUp();
+        boolean redraw = !idleMode || wokenUp || changed || 
+                !(game instanceof Redrawable) || ((Redrawable) game).needsRedraw();
+        //throttled, an idle loop waits with the idle frame rate
+        framePacer.setIdle(!redraw);
+        if(rendering && redraw) {
+            begin = end;
+            render();
+            end = System.nanoTime();
+            frameStats.record(Phase.Draw, end - begin);
+        }
+        if(redraw) {
+            frameStats.frameShown(end);
+        }
+        if(latencyMeasurement && hasInput) {
+            inputLatency.record(end - oldestInput);
+        }
+
+        ticks++;
+        frame++;
+        //wraps once per second at the target frame rate
+        if (frame >= framePacer.getTargetFps()) {
+            frame = 0;
+        }
+    }
+
+    private InputRecorder update(double ms, InputRecorder recorder) {
+        game.update(ms);
+        if(recorder != null) {
+            try {
+                recorder.update(ms);
+            } catch(RuntimeException e) {
+                return recordingFailed(recorder, e);
+            }
+        }
+        return recorder;
+    }
+
+    private InputRecorder recordTick(InputRecorder recorder, long tick) {
+        if(recorder != null) {
+            try {
+                recorder.beginTick(tick);
+            } catch(RuntimeException e) {
+                return recordingFailed(recorder, e);
+            }
+        }
+        return recorder;
+    }
+
+    private InputRecorder recordInput(InputRecorder recorder, InputRecord record) {
+        if(recorder != null) {
+            try {
+                recorder.input(record);
+            } catch(RuntimeException e) {
+                return recordingFailed(recorder, e);
+            }
+        }
+        return recorder;
+    }
+
+    //a broken log ends the replay, but not the loop
+    private boolean nextReplayTick(InputReplay replay) {
+        try {
+            return replay.nextTick();
+        } catch(RuntimeException e) {
+            e.printStackTrace();
+            try {
+                replay.close();
+            } catch(RuntimeException ex) {
+                //the stream is broken anyway
+            }
+            return false;
+        }
+    }
+
+    //a failing recorder (e.g. disk full) stops the recording, but not the loop
+    private InputRecorder recordingFailed(InputRecorder recorder, RuntimeException e) {
+        e.printStackTrace();
+        if(inputRecorder == recorder) {
+            inputRecorder = null;
+        }
+        try {
+            recorder.close();
+        } catch(RuntimeException ex) {
+            //the stream is broken anyway
+        }
+        return null;
+    }
+
+    private void render() {
+        if(image == null || image.getWidth() != screenSize.width || image.getHeight() != screenSize.height) {
+            image = new BufferedImage(screenSize.width, screenSize.height, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        Graphics2D g = image.createGraphics();
+        g.setClip(0, 0, image.getWidth(), image.getHeight());
+        if(background != null) {
+            g.setColor(background);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        } else {
+            g.setBackground(TRANSPARENT);
+            g.clearRect(0, 0, image.getWidth(), image.getHeight());
+        }
+        game.render(g);
+
+        if(debug) {
+            g.setColor(Color.black);
+            g.drawString("frame: " + frame, 10, 20);
+        }
+        if(frameStatsOverlay) {
+            frameStats.render(g, 10, debug ? 40 : 20);
+        }
+        g.dispose();
+    }
+
+    private double getTickMillis() {
+        if(fixedTimestep != null) {
+            return fixedTimestep.getTickMillis();
+        }
+        return 1000.0 / framePacer.getTargetFps();
+    }
+
+    //==========================================================================
+    //scripted input, applied at the beginning of the next tick
+    //only one thread may script input at a time (single producer)
+
+    public void pressKey(int keyCode) {
+        offer(InputRecord.KEY_PRESSED, keyCode, 0, 0);
+    }
+
+    public void releaseKey(int keyCode) {
+        offer(InputRecord.KEY_RELEASED, keyCode, 0, 0);
+    }
+
+    /**
+     * Presses a mouse button at the current mouse position.
+     * @param button e.g. MouseEvent.BUTTON1
+     */
+    public void pressButton(int button) {
+        offer(InputRecord.BUTTON_PRESSED, button, scriptedMouseX, scriptedMouseY);
+    }
+
+    public void releaseButton(int button) {
+        offer(InputRecord.BUTTON_RELEASED, button, scriptedMouseX, scriptedMouseY);
+    }
+
+    /**
+     * Moves the mouse to a screen position.
+     * @param x
+     * @param y
+     */
+    public void moveMouse(int x, int y) {
+        scriptedMouseX = x;
+        scriptedMouseY = y;
+        offer(InputRecord.MOUSE_MOVED, 0, x, y);
+    }
+
+    /**
+     * Rotates the mouse wheel.
+     * @param rotation negative is up, positive is down
+     */
+    public void rotateWheel(double rotation) {
+        offer(InputRecord.WHEEL_ROTATED, Float.floatToIntBits((float) rotation), 0, 0);
+    }
+
+    private void offer(int type, int code, int x, int y) {
+        if(!inputBuffer.offer(type, code, x, y, 0, System.nanoTime())) {
+            throw new IllegalStateException("scripted input exceeds " + inputBuffer.capacity() + " events per tick");
+        }
+    }
+
+    /**
+     * Is called before each tick to script the input of the tick.
+     */
+    public interface InputScript {
+
+        /**
+         * Use the press and release methods of the loop here.
+         * @param tick index of the tick that is about to run
+         * @param loop the headless loop
+         */
+        public void beforeTick(long tick, HeadlessGameLoop loop);
+
+    }
+
+    //==========================================================================
+
+    @Override
+    public void enableDebug() {
+        debug = true;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+    }
+
+    /**
+     * Closes the loop and stops the workers of the job system. 
+     * Running jobs are interrupted, the loop can not submit jobs anymore.
+     */
+    public void shutdown() {
+        close();
+        jobSystem.shutdown();
+    }
+
+    @Override
+    public int frame() {
+        return frame;
+    }
+
+    @Override
+    public Dimension getScreenSize() {
+        return screenSize;
+    }
+
+    /**
+     * Throttled, the loop runs with this rate in real time. Unthrottled and
+     * without fixed timestep, a tick simulates 1000 / fps milliseconds.
+     * @param fps
+     */
+    @Override
+    public void setTargetFps(int fps) {
+        framePacer.setTargetFps(fps);
+    }
+
+    @Override
+    public int getTargetFps() {
+        return framePacer.getTargetFps();
+    }
+
+    /**
+     * In the headless loop the fixed timestep also sets the simulated delta
+     * of an unthrottled tick.
+     * @param ticksPerSecond
+     * @param maxCatchUpTicks
+     */
+    @Override
+    public void setFixedTimestep(int ticksPerSecond, int maxCatchUpTicks) {
+        if(ticksPerSecond <= 0) {
+            fixedTimestep = null;
+        } else {
+            fixedTimestep = new FixedTimestep(ticksPerSecond, maxCatchUpTicks);
+        }
+    }
+
+    @Override
+    public double getInterpolation() {
+        return interpolation;
+    }
+
+    /**
+     * The headless loop only measures input, update and draw.
+     * Unthrottled, the frame rate is the achieved tick rate.
+     * @return
+     */
+    @Override
+    public FrameStats getFrameStats() {
+        return frameStats;
+    }
+
+    @Override
+    public void setFrameStatsOverlay(boolean visible) {
+        frameStatsOverlay = visible;
+    }
+
+    /**
+     * Headless, the latency is measured until the tick is rendered (or updated
+     * if rendering is off).
+     * @param enabled
+     */
+    @Override
+    public void setLatencyMeasurement(boolean enabled) {
+        latencyMeasurement = enabled;
+    }
+
+    @Override
+    public LatencyHistogram getInputLatency() {
+        return inputLatency;
+    }
+
+    @Override
+    public void startRecording(OutputStream out) {
+        inputRecorder = new InputRecorder(out);
+    }
+
+    @Override
+    public void stopRecording() {
+        InputRecorder recorder = inputRecorder;
+        inputRecorder = null;
+        if(recorder != null) {
+            recorder.close();
+        }
+    }
+
+    /**
+     * Replays a recorded session. When the log ends, the loop is closed,
+     * so {@link #run(long)} with a negative number of ticks runs the whole log.
+     * @param in
+     */
+    @Override
+    public void startReplay(InputStream in) {
+        inputReplay = new InputReplay(in);
+    }
+
+    @Override
+    public boolean isReplaying() {
+        return inputReplay != null;
+    }
+
+    @Override
+    public void setIdleMode(int idleFps) {
+        if(idleFps <= 0) {
+            idleMode = false;
+            framePacer.setIdle(false);
+        } else {
+            framePacer.setIdleFps(idleFps);
+            idleMode = true;
+        }
+    }
+
+    @Override
+    public void wakeUp() {
+        framePacer.wakeUp();
+    }
+
+    @Override
+    public void wakeUpIn(double ms) {
+        framePacer.wakeUpAt(System.nanoTime() + (long) (ms * 1000000.0));
+    }
+    
+    @Override
+    public <T> JobHandle<T> submit(Callable<T> job) {
+        return jobSystem.submit(job);
+    }
+    
+    @Override
+    public TaskScheduler getTaskScheduler() {
+        return taskScheduler;
+    }
+    
+    //headless, the image always has the screen size
+    @Override
+    public void setDynamicResolution(double minScale, double maxScale) {
+    }
+
+    @Override
+    public double getResolutionScale() {
+        return 1;
+    }
+    
+    //no render thread, nothing is dropped
+    @Override
+    public long getDroppedFrames() {
+        return 0;
+    }
+
+    //==========================================================================
+
+    public Game getGame() {
+        return game;
+    }
+
+    public boolean isRendering() {
+        return rendering;
+    }
+
+    /**
+     * If true, every tick is rendered into an off-screen image.
+     * @param rendering
+     */
+    public void setRendering(boolean rendering) {
+        this.rendering = rendering;
+    }
+
+    /**
+     * The off-screen image of the last rendered tick. It is reused in every tick.
+     * @return null if nothing was rendered yet
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public boolean isThrottled() {
+        return throttled;
+    }
+
+    /**
+     * If true, the loop runs in real time, otherwise as fast as possible.
+     * @param throttled
+     */
+    public void setThrottled(boolean throttled) {
+        this.throttled = throttled;
+    }
+
+    public void setBackground(Color background) {
+        this.background = background;
+    }
+
+    public void setScreenSize(Dimension screenSize) {
+        this.screenSize = screenSize;
+    }
+
+    public void setInputScript(InputScript inputScript) {
+        this.inputScript = inputScript;
+    }
+
+    /**
+     * Number of ticks run so far.
+     * @return
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+}
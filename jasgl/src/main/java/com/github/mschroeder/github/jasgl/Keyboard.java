@@ -1,5 +1,7 @@
 package com.github.mschroeder.github.jasgl;
 
+import java.util.function.IntConsumer;
+
 /**
  * Game input method is used to access the keyboard device state.
  * @author Markus Schr&ouml;der
@@ -36,4 +38,11 @@ public interface Keyboard {
      */
     public int[] pressed();
     
+    /**
+     * Calls the consumer with every key code pressed in current frame.
+     * In contrast to {@link #pressed()} no array is created.
+     * @param consumer 
+     */
+    public void forEachPressed(IntConsumer consumer);
+    
 }
@@ -0,0 +1,24 @@
+package com.github.mschroeder.github.jasgl;
+
+import java.util.function.DoubleConsumer;
+
+/**
+ * A game state that loads its resources (maps, tilesets, sprites) before it
+ * is entered. The game multiplexer calls load on a worker thread 
+ * (see {@link GameMultiplexer#preload(java.lang.String)}), so the loading 
+ * does not cause a hitch in the running state.
+ * @author Markus Schr&ouml;der
+ */
+public interface Loadable {
+    
+    /**
+     * Loads the resources. It runs on a worker thread while another state is
+     * running, so it must only touch its own fields.
+     * It is called once, and again if the state was suspended
+     * (see {@link Suspendable}) and is preloaded again.
+     * @param progress report the progress with values from 0 to 1
+     * @throws Exception if loading failed, the state is not switched to
+     */
+    public void load(DoubleConsumer progress) throws Exception;
+    
+}
@@ -2,6 +2,7 @@ package com.github.mschroeder.github.jasgl;
 
 /**
  * Game input method is used to access the mouse device state.
+ * Buttons are the ones of MouseEvent, e.g. MouseEvent.BUTTON1.
  * @author Markus Schr&ouml;der
  */
 public interface Mouse {
@@ -25,4 +26,77 @@ public interface Mouse {
      */
     public boolean right();
     
+    /**
+     * Checks if for a current frame a button is hold.
+     * @param button e.g. MouseEvent.BUTTON1
+     * @return 
+     */
+    public boolean hold(int button);
+    
+    /**
+     * Checks if the button went down in the current frame.
+     * @param button e.g. MouseEvent.BUTTON1
+     * @return 
+     */
+    public boolean pressed(int button);
+    
+    /**
+     * Checks if the button went up in the current frame.
+     * @param button e.g. MouseEvent.BUTTON1
+     * @return 
+     */
+    public boolean released(int button);
+    
+    /**
+     * X position in pixel on the canvas.
+     * @return 
+     */
+    public int getX();
+    
+    /**
+     * Y position in pixel on the canvas.
+     * @return 
+     */
+    public int getY();
+    
+    /**
+     * X position in the coordinates the game renders in.
+     * If the game loop uses a fixed viewport which is scaled to the canvas,
+     * the scaling is reverted. Otherwise it is the same as {@link #getX()}.
+     * @return 
+     */
+    public double getViewportX();
+    
+    /**
+     * Y position in the coordinates the game renders in.
+     * @return 
+     * @see #getViewportX() 
+     */
+    public double getViewportY();
+    
+    /**
+     * If the mouse moved in the current frame.
+     * @return 
+     */
+    public boolean moved();
+    
+    /**
+     * If the mouse is moved while a button is hold.
+     * @return 
+     */
+    public boolean dragging();
+    
+    /**
+     * Wheel rotation in the current frame. 
+     * Negative values mean away from the user (up), positive towards the user (down).
+     * @return 0 if the wheel was not used
+     */
+    public double getWheelRotation();
+    
+    /**
+     * If the mouse is over the canvas.
+     * @return 
+     */
+    public boolean inside();
+    
 }
@@ -0,0 +1,20 @@
+package com.github.mschroeder.github.jasgl;
+
+/**
+ * A game is redrawable if it can tell whether its frame changed since the 
+ * last render. If a game loop runs in idle mode (see {@link GameLoop#setIdleMode(int)}),
+ * it skips rendering and drops to a low tick rate while nothing changed.
+ * Games that do not implement it are rendered every frame.
+ * @author Markus Schr&ouml;der
+ */
+public interface Redrawable {
+    
+    /**
+     * Is asked after update whether the frame has to be rendered again.
+     * Input always causes a render, so return false if the game is static
+     * (e.g. a title menu or a paused dialog) and true while something moves.
+     * @return true if the visuals changed since the last render
+     */
+    public boolean needsRedraw();
+    
+}
@@ -0,0 +1,32 @@
+package com.github.mschroeder.github.jasgl;
+
+/**
+ * A game state that can release its heavy assets (maps, tileset images,
+ * sprite lists) while it is not running. The game multiplexer suspends the 
+ * least recently used states if its memory budget is exceeded 
+ * (see {@link GameMultiplexer#setMemoryBudget(long)}) and resumes them when
+ * they are switched to again.
+ * @author Markus Schr&ouml;der
+ */
+public interface Suspendable {
+    
+    /**
+     * Releases the heavy assets. The state is not running when it is called.
+     * Keep what is needed to restore it, e.g. the positions of sprites.
+     */
+    public void suspend();
+    
+    /**
+     * Loads the released assets again. It is called on the loop thread before 
+     * the state is entered. If the state is also {@link Loadable}, it is 
+     * reloaded by load in the background instead when it is preloaded.
+     */
+    public void resume();
+    
+    /**
+     * Estimates the bytes held by the state, e.g. 4 bytes per pixel of its images.
+     * @return bytes, a small value if suspended
+     */
+    public long estimateMemory();
+    
+}
@@ -26,15 +26,68 @@ import java.util.Map;
  * Own implementation of a level map.
  * Use the provided editor {@link MapTilesetSpriteFrame} to create a JASGL map based
  * on tilesets.
+ * <p>
+ * At load time the tiles are compiled in render order into primitive arrays 
+ * (one entry per tile, index i), so rendering and queries do not access JSON.
+ * A per-cell index (compressed rows: the tiles of a cell are a slice of one
+ * array) and a block mask per cell make isBlock O(1) and getTilesAt O(k).
  * @author Markus Schr&ouml;der
  */
 public class JasglLevelMap extends LevelMap {
 
+    /**
+     * Block flags of a tile: it blocks on its left ("l"), right ("r"), upper ("u")
+     * or lower ("d") side.
+     */
+    public static final int BLOCK_LEFT = 1;
+    public static final int BLOCK_RIGHT = 2;
+    public static final int BLOCK_UP = 4;
+    public static final int BLOCK_DOWN = 8;
+    
     private JsonObject data;
     private Map<String, ImageWithMetaData> tilesetCache;
     private Map<String, Map<Integer, Map<Integer, JsonObject>>> img2x2y2tile;
     private List<JsonObject> tiles;
     
+    //compiled tiles, same order as tiles
+    private int tileCount;
+    private int[] tileGx;
+    private int[] tileGy;
+    private int[] tileGz;
+    private int[] tileSrcX;
+    private int[] tileSrcY;
+    private int[] tileSrcW;
+    private int[] tileSrcH;
+    private int[] tileTileset;
+    private byte[] tileLayer;
+    private byte[] tileBlock;
+    //tileset index -> image
+    private BufferedImage[] tilesetImages;
+    
+    //cells of the grid from (cellMinGx, cellMinGy), row by row
+    private int cellMinGx;
+    private int cellMinGy;
+    private int cellCols;
+    private int cellRows;
+    //tiles of cell c are cellTiles[cellStart[c]] to cellTiles[cellStart[c+1] - 1]
+    private int[] cellStart;
+    private int[] cellTiles;
+    //block flags of all tiles in a cell
+    private byte[] cellBlock;
+    
+    //tiles of a layer in row gy are layerRowStart[layer][gy - cellMinGy] 
+    //to layerRowStart[layer][gy - cellMinGy + 1] - 1, sorted by gx
+    private int[][] layerRowStart;
+    private int minGz;
+    private int maxGz;
+    //highest screen row (gy - gz) of the object layer tiles up to i in render order
+    private int[] tileRowPrefixMax;
+    //bounds in grid units including gz
+    private Rectangle mapGridRectangle;
+    
+    //incremented on changes, so caches know they are stale
+    private int version;
+    
     private Dimension grid;
     
     public JasglLevelMap(File f) {
@@ -95,6 +148,161 @@ public class JasglLevelMap extends LevelMap {
         }
         
         tiles.sort(new TileComparator());
+        
+        compile();
+    }
+    
+    //tiles to arrays
+    private void compile() {
+        tileCount = tiles.size();
+        tileGx = new int[tileCount];
+        tileGy = new int[tileCount];
+        tileGz = new int[tileCount];
+        tileSrcX = new int[tileCount];
+        tileSrcY = new int[tileCount];
+        tileSrcW = new int[tileCount];
+        tileSrcH = new int[tileCount];
+        tileTileset = new int[tileCount];
+        tileLayer = new byte[tileCount];
+        tileBlock = new byte[tileCount];
+        
+        Map<String, Integer> tileset2index = new HashMap<>();
+        List<BufferedImage> images = new ArrayList<>();
+        
+        for(int i = 0; i < tileCount; i++) {
+            JsonObject mapTile = tiles.get(i);
+            JsonObject tile = resolveTileRef(mapTile);
+            
+            tileGx[i] = mapTile.get("gx").getAsInt();
+            tileGy[i] = mapTile.get("gy").getAsInt();
+            tileGz[i] = mapTile.get("gz").getAsInt();
+            
+            tileSrcX[i] = tile.get("x").getAsInt();
+            tileSrcY[i] = tile.get("y").getAsInt();
+            tileSrcW[i] = tile.get("w").getAsInt();
+            tileSrcH[i] = tile.get("h").getAsInt();
+            
+            String img = mapTile.getAsJsonObject("tileref").get("img").getAsString();
+            Integer index = tileset2index.get(img);
+            if(index == null) {
+                index = images.size();
+                tileset2index.put(img, index);
+                images.add(tilesetCache.get(img).getImage());
+            }
+            tileTileset[i] = index;
+            
+            tileLayer[i] = (byte) getLayerIndex(getLayer(tile));
+            
+            int block = 0;
+            if(isFlag(tile, "l")) {
+                block |= BLOCK_LEFT;
+            }
+            if(isFlag(tile, "r")) {
+                block |= BLOCK_RIGHT;
+            }
+            if(isFlag(tile, "u")) {
+                block |= BLOCK_UP;
+            }
+            if(isFlag(tile, "d")) {
+                block |= BLOCK_DOWN;
+            }
+            tileBlock[i] = (byte) block;
+        }
+        
+        tilesetImages = images.toArray(new BufferedImage[images.size()]);
+        
+        indexCells();
+        indexRows();
+        mapGridRectangle = computeMapGridRectangle();
+    }
+    
+    //the tiles are sorted by layer, gy and gx, so a row of a layer is a range
+    private void indexRows() {
+        int objectLayer = getLayerIndex(Stamp.OBJECT);
+        int layers = objectLayer + 1;
+        layerRowStart = new int[layers][cellRows + 1];
+        
+        int i = 0;
+        for(int layer = 0; layer < layers; layer++) {
+            for(int row = 0; row < cellRows; row++) {
+                layerRowStart[layer][row] = i;
+                while(i < tileCount && tileLayer[i] == layer && tileGy[i] - cellMinGy == row) {
+                    i++;
+                }
+            }
+            layerRowStart[layer][cellRows] = i;
+        }
+        
+        minGz = Integer.MAX_VALUE;
+        maxGz = Integer.MIN_VALUE;
+        tileRowPrefixMax = new int[tileCount];
+        int prefixMax = Integer.MIN_VALUE;
+        for(i = 0; i < tileCount; i++) {
+            minGz = Math.min(minGz, tileGz[i]);
+            maxGz = Math.max(maxGz, tileGz[i]);
+            if(tileLayer[i] == objectLayer) {
+                prefixMax = Math.max(prefixMax, tileGy[i] - tileGz[i]);
+            }
+            tileRowPrefixMax[i] = prefixMax;
+        }
+        if(tileCount == 0) {
+            minGz = maxGz = 0;
+        }
+    }
+    
+    //counting sort of the tile indices by cell, keeps the render order in a cell
+    private void indexCells() {
+        int minGx = Integer.MAX_VALUE;
+        int minGy = Integer.MAX_VALUE;
+        int maxGx = Integer.MIN_VALUE;
+        int maxGy = Integer.MIN_VALUE;
+        for(int i = 0; i < tileCount; i++) {
+            minGx = Math.min(minGx, tileGx[i]);
+            minGy = Math.min(minGy, tileGy[i]);
+            maxGx = Math.max(maxGx, tileGx[i]);
+            maxGy = Math.max(maxGy, tileGy[i]);
+        }
+        if(tileCount == 0) {
+            minGx = minGy = 0;
+            maxGx = maxGy = -1;
+        }
+        cellMinGx = minGx;
+        cellMinGy = minGy;
+        cellCols = maxGx - minGx + 1;
+        cellRows = maxGy - minGy + 1;
+        
+        int cells = cellCols * cellRows;
+        cellStart = new int[cells + 1];
+        cellTiles = new int[tileCount];
+        cellBlock = new byte[cells];
+        
+        for(int i = 0; i < tileCount; i++) {
+            cellStart[cellOf(tileGx[i], tileGy[i]) + 1]++;
+        }
+        for(int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] next = new int[cells];
+        System.arraycopy(cellStart, 0, next, 0, cells);
+        for(int i = 0; i < tileCount; i++) {
+            int c = cellOf(tileGx[i], tileGy[i]);
+            cellTiles[next[c]++] = i;
+            cellBlock[c] |= tileBlock[i];
+        }
+    }
+    
+    //-1 if outside of the map
+    private int cellOf(int gx, int gy) {
+        int col = gx - cellMinGx;
+        int row = gy - cellMinGy;
+        if(col < 0 || row < 0 || col >= cellCols || row >= cellRows) {
+            return -1;
+        }
+        return row * cellCols + col;
+    }
+    
+    private static boolean isFlag(JsonObject tile, String key) {
+        return tile.has(key) && tile.get(key).getAsBoolean();
     }
     
     private Map<Integer, Map<Integer, JsonObject>> ensureTilesetLoaded(String baseFolder, String filename, boolean fromResource) {
@@ -166,6 +374,13 @@ public class JasglLevelMap extends LevelMap {
         return new Dimension(grid.width * rect.width, grid.height * rect.height);
     }
     
+    /**
+     * The map tiles in render order. The list can be changed (e.g. by an 
+     * editor), but rendering and the queries use the compiled tiles: call 
+     * {@link #markChanged()} afterwards. Tiles may only refer to tilesets 
+     * the map already uses.
+     * @return 
+     */
     public List<JsonObject> getTiles() {
         return tiles;
     }
@@ -175,17 +390,55 @@ public class JasglLevelMap extends LevelMap {
     }
 
     private List<JsonObject> getTilesAt(int gx, int gy, List<JsonObject> tiles) {
-        List<JsonObject> result = new ArrayList<>();
-        for (JsonObject tile : tiles) {
-            int tgx = tile.get("gx").getAsInt();
-            int tgy = tile.get("gy").getAsInt();
-            if (tgx == gx && tgy == gy) {
-                result.add(tile);
-            }
+        int c = cellOf(gx, gy);
+        if(c < 0) {
+            return new ArrayList<>();
+        }
+        List<JsonObject> result = new ArrayList<>(cellStart[c + 1] - cellStart[c]);
+        for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+            result.add(tiles.get(cellTiles[k]));
         }
         return result;
     }
     
+    /**
+     * Number of tiles in a cell.
+     * @param gx
+     * @param gy
+     * @return 0 if outside of the map
+     */
+    public int getTileCountAt(int gx, int gy) {
+        int c = cellOf(gx, gy);
+        return c < 0 ? 0 : cellStart[c + 1] - cellStart[c];
+    }
+    
+    /**
+     * Index of the k-th tile (in render order) in a cell.
+     * @param gx
+     * @param gy
+     * @param k from 0 to getTileCountAt(gx, gy) - 1
+     * @return index for the compiled tile getters
+     * @throws IndexOutOfBoundsException if the cell is outside of the map or k is out of range
+     */
+    public int getTileIndexAt(int gx, int gy, int k) {
+        int c = cellOf(gx, gy);
+        if(c < 0 || k < 0 || k >= cellStart[c + 1] - cellStart[c]) {
+            throw new IndexOutOfBoundsException("no tile " + k + " at " + gx + "," + gy);
+        }
+        return cellTiles[cellStart[c] + k];
+    }
+    
+    /**
+     * The block flags of all tiles in a cell.
+     * @param gx
+     * @param gy
+     * @return 0 if outside of the map
+     */
+    public int getBlockAt(int gx, int gy) {
+        int c = cellOf(gx, gy);
+        return c < 0 ? 0 : cellBlock[c];
+    }
+    
     public JsonObject resolveTileRef(JsonObject mapTile) {
         JsonObject tileref = mapTile.getAsJsonObject("tileref");
         Map<Integer, Map<Integer, JsonObject>> x2y2tile = img2x2y2tile.get(tileref.get("img").getAsString());
@@ -206,26 +459,25 @@ public class JasglLevelMap extends LevelMap {
     }
     
     public boolean isBlock(int gx, int gy, Direction go) {
-        boolean block = false;
-        List<JsonObject> tileRefsAt = resolveTileRefsAt(gx, gy);
-        for(JsonObject tile : tileRefsAt) {
-            if(tile.has("r") && go == Direction.Left) {
-                block |= tile.get("r").getAsBoolean();
-            }
-            if(tile.has("l") && go == Direction.Right) {
-                block |= tile.get("l").getAsBoolean();
-            }
-            if(tile.has("u") && go == Direction.Down) {
-                block |= tile.get("u").getAsBoolean();
-            }
-            if(tile.has("d") && go == Direction.Up) {
-                block |= tile.get("d").getAsBoolean();
-            }
+        return isBlock(getBlockAt(gx, gy), go);
+    }
+    
+    //going left is blocked by the right side of a tile and so on
+    private static boolean isBlock(int mask, Direction go) {
+        switch(go) {
+            case Left: return (mask & BLOCK_RIGHT) != 0;
+            case Right: return (mask & BLOCK_LEFT) != 0;
+            case Down: return (mask & BLOCK_UP) != 0;
+            case Up: return (mask & BLOCK_DOWN) != 0;
         }
-        return block;
+        return false;
     }
     
     public Rectangle getMapGridRectangle() {
+        return new Rectangle(mapGridRectangle);
+    }
+    
+    private Rectangle computeMapGridRectangle() {
 
         int minGridX = Integer.MAX_VALUE;
         int minGridY = Integer.MAX_VALUE;
@@ -233,10 +485,10 @@ public class JasglLevelMap extends LevelMap {
         int maxGridX = Integer.MIN_VALUE;
         int maxGridY = Integer.MIN_VALUE;
 
-        for (JsonObject tile : getTiles()) {
-            int tgx = tile.get("gx").getAsInt();
-            int tgy = tile.get("gy").getAsInt();
-            int tgz = tile.get("gz").getAsInt();
+        for (int i = 0; i < tileCount; i++) {
+            int tgx = tileGx[i];
+            int tgy = tileGy[i];
+            int tgz = tileGz[i];
 
             minGridX = Math.min(minGridX, tgx);
             minGridY = Math.min(minGridY, tgy - tgz);
@@ -313,4 +565,133 @@ public class JasglLevelMap extends LevelMap {
     public Dimension getGrid() {
         return grid;
     }
+    
+    /**
+     * Call it after the map or its tileset images were changed: the tiles
+     * are sorted and compiled again and renderers drop their cached images.
+     */
+    public void markChanged() {
+        tiles.sort(new TileComparator());
+        compile();
+        version++;
+    }
+    
+    /**
+     * Changes with every {@link #markChanged()}.
+     * @return 
+     */
+    public int getVersion() {
+        return version;
+    }
+    
+    //==========================================================================
+    //compiled tiles, index i is the i-th tile in render order
+    
+    public int getTileCount() {
+        return tileCount;
+    }
+    
+    public int getTileGx(int i) {
+        return tileGx[i];
+    }
+    
+    public int getTileGy(int i) {
+        return tileGy[i];
+    }
+    
+    public int getTileGz(int i) {
+        return tileGz[i];
+    }
+    
+    public int getTileSrcX(int i) {
+        return tileSrcX[i];
+    }
+    
+    public int getTileSrcY(int i) {
+        return tileSrcY[i];
+    }
+    
+    public int getTileSrcW(int i) {
+        return tileSrcW[i];
+    }
+    
+    public int getTileSrcH(int i) {
+        return tileSrcH[i];
+    }
+    
+    /**
+     * Index of the tile's tileset image.
+     * @param i
+     * @return index for {@link #getTilesetImage(int)}
+     */
+    public int getTileTileset(int i) {
+        return tileTileset[i];
+    }
+    
+    /**
+     * The layer index of the tile (see {@link #getLayerIndex(java.lang.String)}).
+     * @param i
+     * @return 
+     */
+    public int getTileLayer(int i) {
+        return tileLayer[i];
+    }
+    
+    /**
+     * The block flags of the tile (BLOCK_LEFT, BLOCK_RIGHT, BLOCK_UP, BLOCK_DOWN).
+     * @param i
+     * @return 
+     */
+    public int getTileBlock(int i) {
+        return tileBlock[i];
+    }
+    
+    /**
+     * First tile of a layer in row gy. The tiles of the row are sorted by gx.
+     * @param layer layer index
+     * @param gy row, clamped to the map
+     * @return index of the first tile
+     */
+    public int getLayerRowStart(int layer, int gy) {
+        int row = Math.max(0, Math.min(cellRows, gy - cellMinGy));
+        return layerRowStart[layer][row];
+    }
+    
+    /**
+     * Index after the last tile of a layer in row gy.
+     * @param layer layer index
+     * @param gy row, clamped to the map
+     * @return 
+     */
+    public int getLayerRowEnd(int layer, int gy) {
+        int row = Math.max(-1, Math.min(cellRows - 1, gy - cellMinGy));
+        return layerRowStart[layer][row + 1];
+    }
+    
+    public int getMinGz() {
+        return minGz;
+    }
+    
+    public int getMaxGz() {
+        return maxGz;
+    }
+    
+    /**
+     * The highest screen row (gy - gz) of the object layer tiles up to i in render order.
+     * Renderers use it to place sprites between the tiles even if they skip 
+     * some tiles.
+     * @param i
+     * @return 
+     */
+    public int getTileRowPrefixMax(int i) {
+        return tileRowPrefixMax[i];
+    }
+    
+    public BufferedImage getTilesetImage(int tileset) {
+        return tilesetImages[tileset];
+    }
+    
+    public int getTilesetCount() {
+        return tilesetImages.length;
+    }
 }
@@ -4,22 +4,53 @@ import com.github.mschroeder.github.jasgl.editor.Stamp;
 import com.github.mschroeder.github.jasgl.levelmap.JasglLevelMap;
 import com.github.mschroeder.github.jasgl.sprite.ListOfSprites;
 import com.github.mschroeder.github.jasgl.sprite.Sprite;
-import com.github.mschroeder.github.jasgl.util.GraphicsUtils;
-import com.google.gson.JsonObject;
 import java.awt.AlphaComposite;
 import java.awt.Graphics2D;
-import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
- *
+ * Renders a {@link JasglLevelMap} with sprites between the object layer tiles.
+ * Only the tiles in the clip are drawn. The ground layer is drawn from 
+ * cached chunk images.
  * @author Markus Schr&ouml;der
  */
 public class JasglLevelMapRenderer {
     
+    private static final int CHUNK_SIZE = 512;
+    private static final int DEFAULT_MAX_CHUNKS = 24;
+    //marks a chunk without ground tiles
+    private static final BufferedImage EMPTY_CHUNK = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+    
     private JasglLevelMap map;
+    
+    private boolean groundChunkCache = true;
+    private int maxChunks = DEFAULT_MAX_CHUNKS;
+    private int maxChunksInUse = DEFAULT_MAX_CHUNKS;
+    //chunk (cx << 32 | cy) to its baked ground, least recently used first
+    private Map<Long, BufferedImage> chunks = new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+            return size() > maxChunksInUse;
+        }
+    };
+    //the sprites of the list sortedFrom, kept sorted by y across frames
+    private Sprite[] sortedSprites = new Sprite[0];
+    //the same sprites in list order, to notice a replaced one
+    private Sprite[] listedSprites = new Sprite[0];
+    private int sortedSpriteCount;
+    private ListOfSprites sortedFrom;
+    private int sortedModCount;
+    //next sprite to render
+    private int spriteCursor;
+    
+    //map and version the chunks were baked from
+    private JasglLevelMap chunkMap;
+    private int chunkVersion;
 
     public JasglLevelMapRenderer() {
     }
@@ -42,57 +73,218 @@ public class JasglLevelMapRenderer {
         g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_DEFAULT);
         
         
-        ListOfSprites spritesToRender = new ListOfSprites(sprites);
-        spritesToRender.sortByY();
-        
-        for (JsonObject mapTile : map.getTiles()) {
-            
-            BufferedImage tilesetImage = map.resolveTileset(mapTile);
-            JsonObject tile = map.resolveTileRef(mapTile);
-            
-            int x = tile.get("x").getAsInt();
-            int y = tile.get("y").getAsInt();
-            int w = tile.get("w").getAsInt();
-            int h = tile.get("h").getAsInt();
-
-            Rectangle src = new Rectangle(x, y, w, h);
-
-            int gx = mapTile.get("gx").getAsInt();
-            int gy = mapTile.get("gy").getAsInt();
-            int gz = mapTile.get("gz").getAsInt();
-
-            Point dstScreenPoint = map.getScreenPoint(new Point(gx, gy - gz));
-            //if(gx == 5 && gy == 6 && gz == 0 && JasglLevelMap.getLayer(tile).equals(Stamp.OBJECT)) {
-            //    dstScreenPoint = map.getScreenPoint(new Point(gx + 1, gy - gz));
-            //    dstScreenPoint.x -= 16;
-            //}
-            Rectangle dst = new Rectangle(dstScreenPoint, map.getGrid());
-            
-            while(!spritesToRender.isEmpty() && JasglLevelMap.getLayer(tile).equals(Stamp.OBJECT) && dst.y >= spritesToRender.get(0).getY()) {
-                Sprite sprite = spritesToRender.remove(0);
-                sprite.render(g);
-            }
-            
-            //problem: if the image is drawn fast over another and if resized then fragments occur
-            //sleep tried, reduces a bit but frame rate drops
-            GraphicsUtils.drawImage(g, tilesetImage, src, dst);
-            
-            //System.out.println(drawImage + " (" + gx + "," + gy + "," + gz + ") " + tile.toString());
-            
-            //if(gx == 5 && gy == 6 && gz == 0 && JasglLevelMap.getLayer(tile).equals(Stamp.OBJECT)) {
-            //    break;
-            //}
+        //sprites sorted by y, rendered by moving the cursor
+        updateSortedSprites(sprites);
+        spriteCursor = 0;
+        
+        int gridW = map.getGrid().width;
+        int gridH = map.getGrid().height;
+        int objectLayer = JasglLevelMap.getLayerIndex(Stamp.OBJECT);
+        
+        //only tiles in the visible part (camera translation is in the clip)
+        Rectangle clip = g.getClipBounds();
+        Rectangle grid = map.getMapGridRectangle();
+        int colFrom = grid.x;
+        int colTo = grid.x + grid.width - 1;
+        //screen rows (gy - gz)
+        int rowFrom = grid.y;
+        int rowTo = grid.y + grid.height - 1;
+        if(clip != null) {
+            colFrom = Math.floorDiv(clip.x, gridW);
+            colTo = Math.floorDiv(clip.x + clip.width - 1, gridW);
+            rowFrom = Math.floorDiv(clip.y, gridH);
+            rowTo = Math.floorDiv(clip.y + clip.height - 1, gridH);
+        }
+        
+        //ground from baked chunks, then only the object layer tile by tile
+        int layerFrom = 0;
+        if(groundChunkCache && clip != null) {
+            renderGroundChunks(g, clip);
+            layerFrom = objectLayer;
+        }
+        
+        for (int layer = layerFrom; layer <= objectLayer; layer++) {
+            renderTiles(g, layer, colFrom, colTo, rowFrom, rowTo, true);
         }
         //System.out.println("===============================");
         
         //g.drawImage(map.getTilesetCache().get("basic.tileset.png").getImage(), 0, 0, null);
         
         //render rest
-        spritesToRender.render(g);
+        while(spriteCursor < sortedSpriteCount) {
+            sortedSprites[spriteCursor++].render(g);
+        }
+        
+        
+        
+        
+    }
+
+    //tiles of a layer in the given columns and screen rows, 
+    //sprites are rendered between the object layer tiles if merged
+    private void renderTiles(Graphics2D g, int layer, int colFrom, int colTo, int rowFrom, int rowTo, boolean mergeSprites) {
+        int gridW = map.getGrid().width;
+        int gridH = map.getGrid().height;
+        boolean objectLayer = layer == JasglLevelMap.getLayerIndex(Stamp.OBJECT);
+        
+        //a tile in row gy is drawn in screen row gy - gz
+        int gyFrom = rowFrom + map.getMinGz();
+        int gyTo = rowTo + map.getMaxGz();
+        
+        for (int gy = gyFrom; gy <= gyTo; gy++) {
+            int end = map.getLayerRowEnd(layer, gy);
+            int i = firstTileFrom(map.getLayerRowStart(layer, gy), end, colFrom);
+
+            for (; i < end && map.getTileGx(i) <= colTo; i++) {
+                int row = gy - map.getTileGz(i);
+                if(row < rowFrom || row > rowTo) {
+                    continue;
+                }
+
+                int dstX = map.getTileGx(i) * gridW;
+                int dstY = row * gridH;
+
+                //sprites above the tiles so far (including skipped ones)
+                if(objectLayer && mergeSprites) {
+                    int maxY = map.getTileRowPrefixMax(i) * gridH;
+                    while(spriteCursor < sortedSpriteCount && maxY >= sortedSprites[spriteCursor].getY()) {
+                        sortedSprites[spriteCursor++].render(g);
+                    }
+                }
+
+                BufferedImage tilesetImage = map.getTilesetImage(map.getTileTileset(i));
+                int x = map.getTileSrcX(i);
+                int y = map.getTileSrcY(i);
+
+                //problem: if the image is drawn fast over another and if resized then fragments occur
+                //sleep tried, reduces a bit but frame rate drops
+                g.drawImage(tilesetImage, 
+                    dstX, dstY, dstX + gridW, dstY + gridH,
+                    x, y, x + map.getTileSrcW(i), y + map.getTileSrcH(i),
+                    null);
+            }
+        }
+    }
+    
+    //copies the list only if it changed, then restores the order by y,
+    //which is an insertion sort over a nearly sorted array
+    private void updateSortedSprites(ListOfSprites sprites) {
+        if(sprites != sortedFrom || sprites.getModCount() != sortedModCount || 
+           sprites.size() != sortedSpriteCount || replaced(sprites)) {
+            if(sortedSprites.length < sprites.size()) {
+                sortedSprites = new Sprite[sprites.size() * 2];
+                listedSprites = new Sprite[sortedSprites.length];
+            }
+            //forget sprites of a longer list
+            for(int i = sprites.size(); i < sortedSpriteCount; i++) {
+                sortedSprites[i] = null;
+                listedSprites[i] = null;
+            }
+            sortedSpriteCount = sprites.size();
+            for(int i = 0; i < sortedSpriteCount; i++) {
+                sortedSprites[i] = sprites.get(i);
+                listedSprites[i] = sortedSprites[i];
+            }
+            sortedFrom = sprites;
+            sortedModCount = sprites.getModCount();
+        }
         
+        //stable, sprites only move a bit per frame
+        for(int i = 1; i < sortedSpriteCount; i++) {
+            Sprite sprite = sortedSprites[i];
+            double y = sprite.pos.y;
+            int j = i - 1;
+            while(j >= 0 && sortedSprites[j].pos.y > y) {
+                sortedSprites[j + 1] = sortedSprites[j];
+                j--;
+            }
+            sortedSprites[j + 1] = sprite;
+        }
+    }
+    
+    //ArrayList.set does not change the mod count: compare by identity
+    private boolean replaced(ListOfSprites sprites) {
+        for(int i = 0; i < sortedSpriteCount; i++) {
+            if(sprites.get(i) != listedSprites[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    //blits the chunks in the clip, bakes missing ones
+    private void renderGroundChunks(Graphics2D g, Rectangle clip) {
+        if(chunkMap != map || chunkVersion != map.getVersion()) {
+            //other or changed map
+            chunks.clear();
+            chunkMap = map;
+            chunkVersion = map.getVersion();
+        }
         
+        int cxFrom = Math.floorDiv(clip.x, CHUNK_SIZE);
+        int cxTo = Math.floorDiv(clip.x + clip.width - 1, CHUNK_SIZE);
+        int cyFrom = Math.floorDiv(clip.y, CHUNK_SIZE);
+        int cyTo = Math.floorDiv(clip.y + clip.height - 1, CHUNK_SIZE);
         
+        //the visible chunks are never evicted in the same frame
+        maxChunksInUse = Math.max(maxChunks, (cxTo - cxFrom + 1) * (cyTo - cyFrom + 1));
         
+        for(int cy = cyFrom; cy <= cyTo; cy++) {
+            for(int cx = cxFrom; cx <= cxTo; cx++) {
+                long key = ((long) cx << 32) | (cy & 0xffffffffL);
+                BufferedImage chunk = chunks.get(key);
+                if(chunk == null) {
+                    chunk = bakeChunk(g, cx, cy);
+                    chunks.put(key, chunk);
+                }
+                if(chunk != EMPTY_CHUNK) {
+                    g.drawImage(chunk, cx * CHUNK_SIZE, cy * CHUNK_SIZE, null);
+                }
+            }
+        }
+    }
+    
+    private BufferedImage bakeChunk(Graphics2D g, int cx, int cy) {
+        int gridW = map.getGrid().width;
+        int gridH = map.getGrid().height;
+        int x = cx * CHUNK_SIZE;
+        int y = cy * CHUNK_SIZE;
+        
+        int colFrom = Math.floorDiv(x, gridW);
+        int colTo = Math.floorDiv(x + CHUNK_SIZE - 1, gridW);
+        int rowFrom = Math.floorDiv(y, gridH);
+        int rowTo = Math.floorDiv(y + CHUNK_SIZE - 1, gridH);
+        
+        //nothing of the ground in it
+        Rectangle grid = map.getMapGridRectangle();
+        if(colTo < grid.x || colFrom >= grid.x + grid.width || 
+           rowTo < grid.y || rowFrom >= grid.y + grid.height) {
+            return EMPTY_CHUNK;
+        }
+        
+        //managed image, compatible with the target
+        BufferedImage chunk = g.getDeviceConfiguration().createCompatibleImage(CHUNK_SIZE, CHUNK_SIZE, Transparency.TRANSLUCENT);
+        Graphics2D cg = chunk.createGraphics();
+        cg.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        cg.translate(-x, -y);
+        renderTiles(cg, JasglLevelMap.getLayerIndex(Stamp.GROUND), colFrom, colTo, rowFrom, rowTo, false);
+        cg.dispose();
+        return chunk;
+    }
+    
+    //binary search of the first tile with gx >= col in a row
+    private int firstTileFrom(int from, int to, int col) {
+        int lo = from;
+        int hi = to;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(map.getTileGx(mid) < col) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
     }
 
     public JasglLevelMap getMap() {
@@ -103,4 +295,32 @@ public class JasglLevelMapRenderer {
         this.map = map;
     }
 
+    public boolean isGroundChunkCache() {
+        return groundChunkCache;
+    }
+
+    /**
+     * If true (default), the ground layer is baked into chunk images of 
+     * 512x512 pixels which are built when they come into view. 
+     * The chunks are rebuilt if the map version changes (see {@link JasglLevelMap#markChanged()}).
+     * @param groundChunkCache 
+     */
+    public void setGroundChunkCache(boolean groundChunkCache) {
+        this.groundChunkCache = groundChunkCache;
+        chunks.clear();
+    }
+
+    public int getMaxChunks() {
+        return maxChunks;
+    }
+
+    /**
+     * How many chunks are kept at most. The least recently drawn are evicted.
+     * At least the visible chunks are kept.
+     * @param maxChunks 
+     */
+    public void setMaxChunks(int maxChunks) {
+        this.maxChunks = maxChunks;
+    }
+
 }
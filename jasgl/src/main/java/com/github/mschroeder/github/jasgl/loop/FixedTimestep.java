@@ -0,0 +1,118 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+/**
+ * Accumulates the real elapsed time and decides how many update ticks of a
+ * fixed size have to run to catch up with it.
+ * The part of a tick which is left over is the interpolation alpha for rendering.
+ * @author Markus Schr&ouml;der
+ */
+public class FixedTimestep {
+
+    private static final long SECOND_NANOS = 1000000000L;
+
+    private long tickNanos;
+    private int maxCatchUpTicks;
+
+    private long accumulator;
+    private long last;
+    private boolean started;
+
+    //ticks that were skipped because the cap was reached
+    private long droppedTicks;
+
+    /**
+     * A fixed timestep.
+     * @param ticksPerSecond how often update is called per second
+     * @param maxCatchUpTicks how many ticks are run at most in one frame to catch up
+     */
+    public FixedTimestep(int ticksPerSecond, int maxCatchUpTicks) {
+        if(ticksPerSecond <= 0) {
+            throw new IllegalArgumentException("ticksPerSecond has to be positive");
+        }
+        if(maxCatchUpTicks <= 0) {
+            throw new IllegalArgumentException("maxCatchUpTicks has to be positive");
+        }
+        this.tickNanos = SECOND_NANOS / ticksPerSecond;
+        this.maxCatchUpTicks = maxCatchUpTicks;
+    }
+
+    /**
+     * Adds the time elapsed since the last call and returns the number of
+     * ticks to run now.
+     * If more than maxCatchUpTicks are due, the backlog is dropped so that a
+     * slow frame does not cause an ever growing number of catch-up ticks.
+     * @param now current time in nanoseconds (System.nanoTime())
+     * @return number of update ticks to run
+     */
+    public int advance(long now) {
+        if(!started) {
+            started = true;
+            last = now;
+            return 0;
+        }
+
+        accumulator += now - last;
+        last = now;
+
+        long due = accumulator / tickNanos;
+        int ticks = (int) Math.min(due, maxCatchUpTicks);
+        accumulator -= ticks * tickNanos;
+
+        if(due > ticks) {
+            droppedTicks += due - ticks;
+            //keep only the fraction of a tick
+            accumulator %= tickNanos;
+        }
+
+        return ticks;
+    }
+
+    /**
+     * Forgets the accumulated time, e.g. after the loop was paused.
+     */
+    public void reset() {
+        accumulator = 0;
+        started = false;
+    }
+
+    /**
+     * How far the rendered frame is between the last and the next tick.
+     * @return value in [0, 1)
+     */
+    public double getInterpolation() {
+        return accumulator / (double) tickNanos;
+    }
+
+    /**
+     * Nanoseconds until the next tick is due.
+     * @return
+     */
+    public long getNanosUntilNextTick() {
+        return tickNanos - accumulator;
+    }
+
+    /**
+     * The delta in milliseconds passed to update.
+     * @return
+     */
+    public double getTickMillis() {
+        return tickNanos / 1000000.0;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    public int getMaxCatchUpTicks() {
+        return maxCatchUpTicks;
+    }
+
+    /**
+     * Ticks that were dropped because more than maxCatchUpTicks were due.
+     * @return
+     */
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+}
@@ -0,0 +1,249 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a loop to a target frame rate.
+ * Frames are scheduled against absolute deadlines (start + n * period), so
+ * waiting inaccuracies do not add up over time.
+ * The thread is parked until shortly before the deadline and spins for the
+ * rest, because parking is not precise below a millisecond on most systems.
+ * <p>
+ * In idle mode the pacer uses a lower frame rate. While idle, a wake-up 
+ * (e.g. on input) or a scheduled wake-up ends the wait early.
+ * Scheduled wake-ups are kept in a small sorted queue, so several timers
+ * can be pending at once.
+ * @author Markus Schr&ouml;der
+ */
+public class FramePacer {
+
+    private static final long SECOND_NANOS = 1000000000L;
+    
+    /**
+     * The last part of the wait is spinning instead of parking.
+     */
+    public static final long SPIN_NANOS = 1000000L;
+
+    private int targetFps;
+    private long periodNanos;
+    private long deadline;
+    private boolean started;
+
+    private long lastMiss;
+    
+    private int idleFps;
+    private long idlePeriodNanos;
+    private volatile boolean idle;
+    
+    //wake-up requested resp. scheduled from any thread
+    private volatile boolean wokenUp;
+    private volatile Thread waiter;
+    
+    //scheduled wake-ups, sorted ascending, guarded by this
+    private long[] wakeUps = new long[8];
+    private int wakeUpCount;
+    //the earliest of them, read without the lock
+    private volatile long wakeUpAt = Long.MAX_VALUE;
+
+    /**
+     * @param targetFps frames per second, e.g. 60
+     */
+    public FramePacer(int targetFps) {
+        setTargetFps(targetFps);
+        setIdleFps(targetFps);
+    }
+
+    /**
+     * Starts pacing: the first deadline is one period from now.
+     */
+    public void start() {
+        deadline = System.nanoTime() + periodNanos;
+        started = true;
+    }
+
+    /**
+     * Waits until the deadline of the current frame and moves the deadline
+     * one period further.
+     * If the loop is more than one period behind, the deadlines are
+     * rescheduled from now on instead of running frames back to back to catch up.
+     * @return how many nanoseconds the deadline was missed (0 if in time)
+     */
+    public long awaitNextFrame() {
+        if(!started) {
+            start();
+        }
+        waiter = Thread.currentThread();
+
+        long remaining;
+        while((remaining = target() - System.nanoTime()) > SPIN_NANOS) {
+            if(idle && wokenUp) {
+                break;
+            }
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+            if(Thread.currentThread().isInterrupted()) {
+                //the loop is asked to stop: do not spin for the rest
+                return 0;
+            }
+        }
+        if(!(idle && wokenUp)) {
+            long target = target();
+            while(System.nanoTime() < target) {
+                //spin the last sub-millisecond
+            }
+        }
+
+        long now = System.nanoTime();
+        if(now >= wakeUpAt && removeDueWakeUps(now)) {
+            wokenUp = true;
+        }
+        
+        if(idle && wokenUp) {
+            //woken up early: new schedule from now
+            lastMiss = 0;
+            deadline = now + periodNanos;
+            return lastMiss;
+        }
+        
+        lastMiss = Math.max(0, now - deadline);
+
+        deadline += idle ? idlePeriodNanos : periodNanos;
+        if(deadline < now) {
+            //too far behind: resync
+            deadline = now + periodNanos;
+        }
+
+        return lastMiss;
+    }
+    
+    //while idle the earlier of deadline and scheduled wake-up
+    private long target() {
+        return idle ? Math.min(deadline, wakeUpAt) : deadline;
+    }
+    
+    /**
+     * Wakes up the waiting thread if the pacer is idle. 
+     * Can be called from any thread.
+     */
+    public void wakeUp() {
+        wokenUp = true;
+        Thread t = waiter;
+        if(t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+    
+    /**
+     * Schedules a wake-up. Several wake-ups can be pending, each one ends
+     * an idle wait when it is due.
+     * Can be called from any thread.
+     * @param nanos System.nanoTime() of the wake-up
+     */
+    public synchronized void wakeUpAt(long nanos) {
+        if(wakeUpCount == wakeUps.length) {
+            wakeUps = Arrays.copyOf(wakeUps, wakeUpCount * 2);
+        }
+        //insert sorted, the queue is short
+        int i = wakeUpCount;
+        while(i > 0 && wakeUps[i - 1] > nanos) {
+            wakeUps[i] = wakeUps[i - 1];
+            i--;
+        }
+        wakeUps[i] = nanos;
+        wakeUpCount++;
+        
+        if(i == 0) {
+            //new earliest one: the waiter has to recompute its target
+            wakeUpAt = nanos;
+            Thread t = waiter;
+            if(t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+    
+    //removes the wake-ups that are due, returns if there were any
+    private synchronized boolean removeDueWakeUps(long now) {
+        int due = 0;
+        while(due < wakeUpCount && wakeUps[due] <= now) {
+            due++;
+        }
+        if(due == 0) {
+            return false;
+        }
+        System.arraycopy(wakeUps, due, wakeUps, 0, wakeUpCount - due);
+        wakeUpCount -= due;
+        wakeUpAt = wakeUpCount > 0 ? wakeUps[0] : Long.MAX_VALUE;
+        return true;
+    }
+    
+    /**
+     * Returns if a wake-up happened since the last call and forgets it.
+     * @return 
+     */
+    public boolean consumeWakeUp() {
+        boolean w = wokenUp;
+        wokenUp = false;
+        return w;
+    }
+
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * In idle mode the next deadlines are scheduled with the idle frame rate.
+     * @param idle 
+     */
+    public void setIdle(boolean idle) {
+        this.idle = idle;
+    }
+
+    public int getIdleFps() {
+        return idleFps;
+    }
+
+    public final void setIdleFps(int idleFps) {
+        if(idleFps <= 0) {
+            throw new IllegalArgumentException("idleFps has to be positive");
+        }
+        this.idleFps = idleFps;
+        this.idlePeriodNanos = SECOND_NANOS / idleFps;
+    }
+
+    /**
+     * Forgets the deadlines, the next wait starts a new schedule.
+     */
+    public void reset() {
+        started = false;
+    }
+
+    public int getTargetFps() {
+        return targetFps;
+    }
+
+    /**
+     * Changes the frame rate, starting with the next deadline.
+     * @param targetFps
+     */
+    public final void setTargetFps(int targetFps) {
+        if(targetFps <= 0) {
+            throw new IllegalArgumentException("targetFps has to be positive");
+        }
+        this.targetFps = targetFps;
+        this.periodNanos = SECOND_NANOS / targetFps;
+    }
+
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    /**
+     * How many nanoseconds the last frame missed its deadline.
+     * @return
+     */
+    public long getLastMiss() {
+        return lastMiss;
+    }
+
+}
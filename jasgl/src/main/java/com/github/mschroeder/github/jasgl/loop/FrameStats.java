@@ -0,0 +1,165 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+
+/**
+ * Timing of the phases of the last frames of a game loop and the frame rate
+ * that was actually achieved.
+ * All values are in milliseconds.
+ * @author Markus Schr&ouml;der
+ */
+public class FrameStats {
+
+    /**
+     * The measured phases of a frame.
+     */
+    public enum Phase {
+        /**
+         * Collecting input and calling Game.input.
+         */
+        Input,
+        /**
+         * Calling Game.update (all ticks of the frame).
+         */
+        Update,
+        /**
+         * Running the incremental tasks of the frame (see TaskScheduler).
+         */
+        Tasks,
+        /**
+         * Handing the frame over to the renderer.
+         */
+        RenderSubmit,
+        /**
+         * Drawing the frame, including Game.render.
+         */
+        Draw,
+        /**
+         * Presenting the drawn frame (BufferStrategy.show()).
+         */
+        Show
+    }
+
+    /**
+     * How many frames the statistics are based on.
+     */
+    public static final int DEFAULT_WINDOW = 120;
+
+    private final RollingStats[] phases;
+    private final RollingStats frameIntervals;
+    private final RollingStats deadlineMisses;
+    private long lastFrameShown = -1;
+
+    public FrameStats() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public FrameStats(int window) {
+        phases = new RollingStats[Phase.values().length];
+        for(int i = 0; i < phases.length; i++) {
+            phases[i] = new RollingStats(window);
+        }
+        frameIntervals = new RollingStats(window);
+        deadlineMisses = new RollingStats(window);
+    }
+
+    /**
+     * Records how long a phase took.
+     * @param phase
+     * @param nanos
+     */
+    public void record(Phase phase, long nanos) {
+        phases[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Is called when a frame is on the screen, to measure the frame rate.
+     * @param now System.nanoTime()
+     */
+    public synchronized void frameShown(long now) {
+        if(lastFrameShown >= 0) {
+            frameIntervals.record(now - lastFrameShown);
+        }
+        lastFrameShown = now;
+    }
+
+    /**
+     * Records how late a frame was compared to its scheduled deadline.
+     * @param nanos 0 if the frame was in time
+     */
+    public void recordDeadlineMiss(long nanos) {
+        deadlineMisses.record(nanos);
+    }
+
+    public RollingStats get(Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    /**
+     * Time between two frames that reached the screen.
+     * @return
+     */
+    public RollingStats getFrameIntervals() {
+        return frameIntervals;
+    }
+
+    /**
+     * How late frames were compared to their scheduled deadline.
+     * @return
+     */
+    public RollingStats getDeadlineMisses() {
+        return deadlineMisses;
+    }
+
+    /**
+     * The frame rate that was actually achieved over the last frames.
+     * @return frames per second
+     */
+    public double getFps() {
+        double avg = frameIntervals.getAvg();
+        if(avg <= 0) {
+            return 0;
+        }
+        return 1000.0 / avg;
+    }
+
+    public synchronized void clear() {
+        for(RollingStats rs : phases) {
+            rs.clear();
+        }
+        frameIntervals.clear();
+        deadlineMisses.clear();
+        lastFrameShown = -1;
+    }
+
+    /**
+     * Draws the statistics as text overlay.
+     * @param g
+     * @param x left of the text
+     * @param y baseline of the first line
+     */
+    public void render(Graphics2D g, int x, int y) {
+        int lineHeight = g.getFontMetrics().getHeight();
+        for(String line : toString().split("\n")) {
+            //shadow to be readable on any background
+            g.setColor(Color.black);
+            g.drawString(line, x + 1, y + 1);
+            g.setColor(Color.white);
+            g.drawString(line, x, y);
+            y += lineHeight;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("fps: %.1f", getFps()));
+        for(Phase phase : Phase.values()) {
+            sb.append('\n').append(phase).append(": ").append(get(phase));
+        }
+        sb.append("\nDeadlineMiss: ").append(deadlineMisses);
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+/**
+ * Work that is too long for one frame but has to change the game state,
+ * so it is done in small steps on the loop thread (see {@link TaskScheduler}).
+ * A step should take well below a millisecond.
+ * @author Markus Schr&ouml;der
+ */
+public interface IncrementalTask {
+    
+    /**
+     * Does the next small piece of work.
+     * @return true if the task is finished
+     */
+    public boolean step();
+    
+    /**
+     * Estimated number of steps left, only used to report the backlog.
+     * @return -1 if unknown
+     */
+    public default int remainingSteps() {
+        return -1;
+    }
+    
+}
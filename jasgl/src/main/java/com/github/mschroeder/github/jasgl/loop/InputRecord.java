@@ -0,0 +1,96 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+/**
+ * One input event as plain values, independent of AWT event objects.
+ * Instances are reused: {@link InputRingBuffer#poll(InputRecord)} fills a
+ * given record.
+ * @author Markus Schr&ouml;der
+ */
+public class InputRecord {
+    
+    public static final int KEY_PRESSED = 1;
+    public static final int KEY_RELEASED = 2;
+    public static final int BUTTON_PRESSED = 3;
+    public static final int BUTTON_RELEASED = 4;
+    public static final int MOUSE_MOVED = 5;
+    public static final int MOUSE_ENTERED = 6;
+    public static final int MOUSE_EXITED = 7;
+    /**
+     * The code is the precise wheel rotation as float bits 
+     * (see {@link Float#floatToIntBits(float)}).
+     */
+    public static final int WHEEL_ROTATED = 8;
+    
+    /**
+     * One of the constants, e.g. KEY_PRESSED.
+     */
+    public int type;
+    /**
+     * The key code or mouse button.
+     */
+    public int code;
+    /**
+     * Mouse position on the canvas.
+     */
+    public int x;
+    public int y;
+    /**
+     * The modifiers of the AWT event (e.g. shift down).
+     */
+    public int modifiers;
+    /**
+     * When the event was dispatched (System.nanoTime()).
+     */
+    public long nanos;
+
+    public void set(int type, int code, int x, int y, int modifiers, long nanos) {
+        this.type = type;
+        this.code = code;
+        this.x = x;
+        this.y = y;
+        this.modifiers = modifiers;
+        this.nanos = nanos;
+    }
+    
+    /**
+     * Changes the keyboard or mouse state according to this event.
+     * @param keyboard
+     * @param mouse 
+     */
+    public void applyTo(KeyboardState keyboard, MouseState mouse) {
+        switch(type) {
+            case KEY_PRESSED:
+                keyboard.keyPressed(code);
+                break;
+            case KEY_RELEASED:
+                keyboard.keyReleased(code);
+                break;
+            case BUTTON_PRESSED:
+                mouse.moved(x, y);
+                mouse.buttonPressed(code);
+                break;
+            case BUTTON_RELEASED:
+                mouse.moved(x, y);
+                mouse.buttonReleased(code);
+                break;
+            case MOUSE_MOVED:
+                mouse.moved(x, y);
+                break;
+            case MOUSE_ENTERED:
+                mouse.setInside(true);
+                break;
+            case MOUSE_EXITED:
+                mouse.setInside(false);
+                break;
+            case WHEEL_ROTATED:
+                mouse.wheelRotated(Float.intBitsToFloat(code));
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InputRecord{" + "type=" + type + ", code=" + code + ", x=" + x + ", y=" + y + ", modifiers=" + modifiers + ", nanos=" + nanos + '}';
+    }
+    
+}
@@ -0,0 +1,112 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records what a game loop feeds into a game: per tick the input events
+ * handed to Game.input and the deltas passed to Game.update.
+ * The log is a compact binary stream which {@link InputReplay} reads.
+ * <p>
+ * Format: magic, version, then tagged entries: TICK (tick index), 
+ * INPUT (type, code, x, y, modifiers), UPDATE (delta in ms) and finally END.
+ * @author Markus Schr&ouml;der
+ */
+public class InputRecorder {
+    
+    static final int MAGIC = 0x4A53474C; //JSGL
+    static final int VERSION = 1;
+    
+    static final byte TICK = 1;
+    static final byte INPUT = 2;
+    static final byte UPDATE = 3;
+    static final byte END = 4;
+    
+    private DataOutputStream out;
+    private long ticks;
+
+    /**
+     * Starts a log. The stream is closed with {@link #close()}.
+     * @param out 
+     */
+    public InputRecorder(OutputStream out) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        try {
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(VERSION);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    /**
+     * A new tick (loop iteration) starts.
+     * @param tick index of the tick
+     */
+    public void beginTick(long tick) {
+        try {
+            out.writeByte(TICK);
+            out.writeLong(tick);
+            ticks++;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    /**
+     * An input event that is applied in the current tick.
+     * @param record 
+     */
+    public void input(InputRecord record) {
+        input(record.type, record.code, record.x, record.y, record.modifiers);
+    }
+    
+    public void input(int type, int code, int x, int y, int modifiers) {
+        try {
+            out.writeByte(INPUT);
+            out.writeByte(type);
+            out.writeInt(code);
+            out.writeInt(x);
+            out.writeInt(y);
+            out.writeInt(modifiers);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    /**
+     * Game.update is called with this delta in the current tick.
+     * @param ms 
+     */
+    public void update(double ms) {
+        try {
+            out.writeByte(UPDATE);
+            out.writeDouble(ms);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    /**
+     * Ends the log and closes the stream.
+     */
+    public void close() {
+        try {
+            out.writeByte(END);
+            out.close();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Number of recorded ticks.
+     * @return 
+     */
+    public long getTicks() {
+        return ticks;
+    }
+    
+}
@@ -0,0 +1,158 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a log written by {@link InputRecorder} tick by tick, so that a game
+ * loop can feed the same input and update deltas to a game again.
+ * The records of a tick are kept in reused arrays.
+ * @author Markus Schr&ouml;der
+ */
+public class InputReplay {
+    
+    private DataInputStream in;
+    private boolean ended;
+    //tag read ahead: start of the next tick
+    private int nextTag;
+    
+    private long tick;
+    private InputRecord[] inputs = new InputRecord[16];
+    private int inputCount;
+    private double[] updates = new double[16];
+    private int updateCount;
+
+    public InputReplay(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        try {
+            if(this.in.readInt() != InputRecorder.MAGIC) {
+                throw new RuntimeException("not an input log");
+            }
+            int version = this.in.readInt();
+            if(version != InputRecorder.VERSION) {
+                throw new RuntimeException("input log version " + version + " not supported");
+            }
+            nextTag = this.in.read();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        for(int i = 0; i < inputs.length; i++) {
+            inputs[i] = new InputRecord();
+        }
+    }
+    
+    /**
+     * Reads the next tick.
+     * A log that breaks off within a tick (e.g. the session crashed before
+     * the recorder was flushed) ends before this tick.
+     * @return false if the log has ended (the stream is closed then)
+     */
+    public boolean nextTick() {
+        if(ended) {
+            return false;
+        }
+        
+        inputCount = 0;
+        updateCount = 0;
+        
+        try {
+            if(nextTag != InputRecorder.TICK) {
+                //END or end of stream (log of a crashed session)
+                close();
+                return false;
+            }
+            tick = in.readLong();
+            
+            while(true) {
+                nextTag = in.read();
+                if(nextTag == InputRecorder.INPUT) {
+                    if(inputCount == inputs.length) {
+                        growInputs();
+                    }
+                    InputRecord r = inputs[inputCount++];
+                    int type = in.readByte();
+                    r.set(type, in.readInt(), in.readInt(), in.readInt(), in.readInt(), 0);
+                } else if(nextTag == InputRecorder.UPDATE) {
+                    if(updateCount == updates.length) {
+                        double[] grown = new double[updates.length * 2];
+                        System.arraycopy(updates, 0, grown, 0, updates.length);
+                        updates = grown;
+                    }
+                    updates[updateCount++] = in.readDouble();
+                } else {
+                    //next tick, END or end of stream
+                    return true;
+                }
+            }
+        } catch (EOFException ex) {
+            //truncated log: the partly written tick is not replayed
+            System.err.println("input log ends within tick " + tick + ", replay stopped");
+            inputCount = 0;
+            updateCount = 0;
+            close();
+            return false;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    private void growInputs() {
+        InputRecord[] grown = new InputRecord[inputs.length * 2];
+        System.arraycopy(inputs, 0, grown, 0, inputs.length);
+        for(int i = inputs.length; i < grown.length; i++) {
+            grown[i] = new InputRecord();
+        }
+        inputs = grown;
+    }
+    
+    public void close() {
+        ended = true;
+        try {
+            in.close();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+    
+    public boolean isEnded() {
+        return ended;
+    }
+    
+    /**
+     * Index of the current tick in the recorded session.
+     * @return 
+     */
+    public long getTick() {
+        return tick;
+    }
+    
+    public int getInputCount() {
+        return inputCount;
+    }
+    
+    /**
+     * An input record of the current tick.
+     * @param i
+     * @return a reused record, valid until the next tick is read
+     */
+    public InputRecord getInput(int i) {
+        return inputs[i];
+    }
+    
+    public int getUpdateCount() {
+        return updateCount;
+    }
+    
+    /**
+     * A delta passed to Game.update in the current tick.
+     * @param i
+     * @return 
+     */
+    public double getUpdate(int i) {
+        return updates[i];
+    }
+    
+}
@@ -0,0 +1,103 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A preallocated, lock-free ring buffer of input records for exactly one
+ * producer thread (e.g. the EDT) and one consumer thread (the game loop).
+ * Records are stored in primitive arrays, so neither side allocates or blocks.
+ * If the buffer is full, new records are dropped and counted.
+ * @author Markus Schr&ouml;der
+ */
+public class InputRingBuffer {
+
+    private final int mask;
+    
+    private final int[] types;
+    private final int[] codes;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] modifiers;
+    private final long[] nanos;
+    
+    //next slot to read, only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+    //next slot to write, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+    
+    private volatile long overflows;
+
+    /**
+     * @param capacity is rounded up to a power of two
+     */
+    public InputRingBuffer(int capacity) {
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        types = new int[size];
+        codes = new int[size];
+        xs = new int[size];
+        ys = new int[size];
+        modifiers = new int[size];
+        nanos = new long[size];
+    }
+    
+    /**
+     * Adds a record. Must only be called by the producer thread.
+     * @return false if the buffer is full and the record was dropped
+     */
+    public boolean offer(int type, int code, int x, int y, int modifiers, long nanos) {
+        long t = tail.get();
+        if(t - head.get() > mask) {
+            overflows++;
+            return false;
+        }
+        int i = (int) (t & mask);
+        this.types[i] = type;
+        this.codes[i] = code;
+        this.xs[i] = x;
+        this.ys[i] = y;
+        this.modifiers[i] = modifiers;
+        this.nanos[i] = nanos;
+        //publish the record
+        tail.lazySet(t + 1);
+        return true;
+    }
+    
+    /**
+     * Takes the oldest record. Must only be called by the consumer thread.
+     * @param record is filled with the values of the record
+     * @return false if the buffer is empty
+     */
+    public boolean poll(InputRecord record) {
+        long h = head.get();
+        if(h == tail.get()) {
+            return false;
+        }
+        int i = (int) (h & mask);
+        record.set(types[i], codes[i], xs[i], ys[i], modifiers[i], nanos[i]);
+        //free the slot
+        head.lazySet(h + 1);
+        return true;
+    }
+    
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+    
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+    
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * How many records were dropped because the buffer was full.
+     * @return 
+     */
+    public long getOverflows() {
+        return overflows;
+    }
+    
+}
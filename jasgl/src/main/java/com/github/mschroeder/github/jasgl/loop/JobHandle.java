@@ -0,0 +1,117 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * A job submitted to the game loop. The work runs on a worker thread, 
+ * the callbacks are called on the game loop thread between input and update,
+ * so they can change the game state safely.
+ * @author Markus Schr&ouml;der
+ * @param <T> type of the result
+ */
+public class JobHandle<T> {
+
+    //only touched by the loop thread
+    private Consumer<T> onComplete;
+    private Consumer<Throwable> onError;
+    
+    //written by the worker, read after delivery
+    private volatile boolean done;
+    private volatile T result;
+    private volatile Throwable error;
+    
+    private volatile boolean cancelled;
+    private volatile Future<?> future;
+
+    /**
+     * Called on the loop thread with the result when the job finished.
+     * If the job is already done, it is called with the next delivery.
+     * @param onComplete
+     * @return this handle
+     */
+    public JobHandle<T> onComplete(Consumer<T> onComplete) {
+        this.onComplete = onComplete;
+        return this;
+    }
+
+    /**
+     * Called on the loop thread if the job threw an exception.
+     * Without it the stack trace is printed.
+     * @param onError
+     * @return this handle
+     */
+    public JobHandle<T> onError(Consumer<Throwable> onError) {
+        this.onError = onError;
+        return this;
+    }
+    
+    /**
+     * Cancels the job. If it is running, the worker is interrupted.
+     * No callback is called afterwards.
+     */
+    public void cancel() {
+        cancelled = true;
+        Future<?> f = future;
+        if(f != null) {
+            f.cancel(true);
+        }
+    }
+    
+    /**
+     * True after the callbacks were delivered on the loop thread.
+     * @return 
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * The result, available when done.
+     * @return null if not done or failed
+     */
+    public T getResult() {
+        return result;
+    }
+
+    /**
+     * The exception of the job, available when done.
+     * @return null if not done or succeeded
+     */
+    public Throwable getError() {
+        return error;
+    }
+    
+    //==========================================================================
+    
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+    
+    void completed(T result, Throwable error) {
+        this.result = result;
+        this.error = error;
+    }
+    
+    //called on the loop thread
+    void deliver() {
+        if(cancelled) {
+            return;
+        }
+        done = true;
+        if(error != null) {
+            if(onError != null) {
+                onError.accept(error);
+            } else {
+                error.printStackTrace();
+            }
+        } else if(onComplete != null) {
+            onComplete.accept(result);
+        }
+    }
+    
+}
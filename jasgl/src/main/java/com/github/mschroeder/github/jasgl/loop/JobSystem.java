@@ -0,0 +1,127 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs jobs of the game off the loop thread on a bounded number of workers 
+ * and hands the finished jobs back to the loop thread.
+ * If the Java runtime has virtual threads (Java 21+), the workers are
+ * virtual threads, otherwise daemon platform threads.
+ * @author Markus Schr&ouml;der
+ */
+public class JobSystem {
+
+    private final ExecutorService executor;
+    private final ConcurrentLinkedQueue<JobHandle<?>> finished = new ConcurrentLinkedQueue<>();
+    //called by a worker when a job finished, e.g. to wake up an idle loop
+    private final Runnable finishedListener;
+    
+    /**
+     * A job system with one worker less than processors (at least one).
+     * @param finishedListener called on the worker thread when a job finished, can be null
+     */
+    public JobSystem(Runnable finishedListener) {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), finishedListener);
+    }
+    
+    /**
+     * @param workers how many jobs run at the same time
+     * @param finishedListener called on the worker thread when a job finished, can be null
+     */
+    public JobSystem(int workers, Runnable finishedListener) {
+        if(workers <= 0) {
+            throw new IllegalArgumentException("workers has to be positive");
+        }
+        this.finishedListener = finishedListener;
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                workers, workers, 
+                30, TimeUnit.SECONDS, 
+                new LinkedBlockingQueue<>(), 
+                threadFactory()
+        );
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+    
+    //virtual threads if available, looked up reflectively to run on Java 8
+    private static ThreadFactory threadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "jasgl-worker-", 0L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch(ReflectiveOperationException | RuntimeException ex) {
+            //no virtual threads
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return (Runnable r) -> {
+            Thread t = new Thread(r, "jasgl-worker-" + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+    
+    /**
+     * Runs the job on a worker.
+     * @param <T>
+     * @param job
+     * @return handle to register callbacks which are called by {@link #deliverFinished()}
+     */
+    public <T> JobHandle<T> submit(Callable<T> job) {
+        JobHandle<T> handle = new JobHandle<>();
+        handle.setFuture(executor.submit(() -> {
+            if(handle.isCancelled()) {
+                return;
+            }
+            T result = null;
+            Throwable error = null;
+            try {
+                result = job.call();
+            } catch(Throwable t) {
+                error = t;
+            }
+            handle.completed(result, error);
+            finished.add(handle);
+            if(finishedListener != null) {
+                finishedListener.run();
+            }
+        }));
+        return handle;
+    }
+    
+    /**
+     * Calls the callbacks of all jobs finished so far. Only call it on the
+     * loop thread. Jobs finishing meanwhile are delivered with the next call.
+     * @return number of delivered jobs
+     */
+    public int deliverFinished() {
+        int n = finished.size();
+        int delivered = 0;
+        for(int i = 0; i < n; i++) {
+            JobHandle<?> handle = finished.poll();
+            if(handle == null) {
+                break;
+            }
+            handle.deliver();
+            delivered++;
+        }
+        return delivered;
+    }
+    
+    /**
+     * Stops the workers. Running jobs are interrupted.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+    
+}
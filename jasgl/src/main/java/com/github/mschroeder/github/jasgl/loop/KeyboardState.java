@@ -0,0 +1,224 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+import com.github.mschroeder.github.jasgl.Keyboard;
+import java.util.function.IntConsumer;
+
+/**
+ * The keyboard state a game loop hands to Game.input.
+ * The loop clears it at the beginning of each frame and feeds the key events
+ * of the frame into it.
+ * <p>
+ * Every key code that was seen once gets a dense index. The state is kept in
+ * three bitsets over these indices: hold (down), pressed in this frame and
+ * released in this frame. Queries are O(1) and do not allocate.
+ * @author Markus Schr&ouml;der
+ */
+public class KeyboardState implements Keyboard {
+
+    private static final int INITIAL_KEYS = 128;
+
+    //open addressing hash: key code + 1 (0 means empty slot) -> dense index
+    private int[] slotCodes;
+    private int[] slotIndices;
+    private int slotMask;
+
+    //dense index -> key code
+    private int[] codes;
+    private int size;
+
+    //bitsets over dense indices
+    private long[] hold;
+    private long[] pressedInFrame;
+    private long[] releasedInFrame;
+
+    public KeyboardState() {
+        codes = new int[INITIAL_KEYS];
+        slotCodes = new int[INITIAL_KEYS * 2];
+        slotIndices = new int[INITIAL_KEYS * 2];
+        slotMask = slotCodes.length - 1;
+        hold = new long[INITIAL_KEYS / 64];
+        pressedInFrame = new long[INITIAL_KEYS / 64];
+        releasedInFrame = new long[INITIAL_KEYS / 64];
+    }
+
+    /**
+     * Forgets the pressed and released keys of the last frame.
+     */
+    public void beginFrame() {
+        int words = wordsInUse();
+        for(int i = 0; i < words; i++) {
+            pressedInFrame[i] = 0;
+            releasedInFrame[i] = 0;
+        }
+    }
+
+    /**
+     * A key went down. Auto repeated presses of a hold key are ignored.
+     * @param keyCode
+     */
+    public void keyPressed(int keyCode) {
+        int index = indexOrAdd(keyCode);
+        if(!get(hold, index)) {
+            set(hold, index, true);
+            set(pressedInFrame, index, true);
+        }
+    }
+
+    /**
+     * A key went up.
+     * @param keyCode
+     */
+    public void keyReleased(int keyCode) {
+        int index = indexOrAdd(keyCode);
+        set(hold, index, false);
+        set(releasedInFrame, index, true);
+    }
+
+    /**
+     * Lets go of all hold keys without reporting them as released,
+     * e.g. when the source of the input changes.
+     */
+    public void releaseAll() {
+        int words = wordsInUse();
+        for(int i = 0; i < words; i++) {
+            hold[i] = 0;
+        }
+    }
+
+    @Override
+    public boolean hold(int keyCode) {
+        int index = indexOf(keyCode);
+        return index >= 0 && get(hold, index);
+    }
+
+    @Override
+    public int[] pressed() {
+        int words = wordsInUse();
+        int count = 0;
+        for(int i = 0; i < words; i++) {
+            count += Long.bitCount(pressedInFrame[i]);
+        }
+        int[] result = new int[count];
+        int r = 0;
+        for(int i = 0; i < words; i++) {
+            long word = pressedInFrame[i];
+            while(word != 0) {
+                result[r++] = codes[i * 64 + Long.numberOfTrailingZeros(word)];
+                word &= word - 1;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void forEachPressed(IntConsumer consumer) {
+        int words = wordsInUse();
+        for(int i = 0; i < words; i++) {
+            long word = pressedInFrame[i];
+            while(word != 0) {
+                consumer.accept(codes[i * 64 + Long.numberOfTrailingZeros(word)]);
+                word &= word - 1;
+            }
+        }
+    }
+
+    @Override
+    public boolean pressed(int keyCode) {
+        int index = indexOf(keyCode);
+        return index >= 0 && get(pressedInFrame, index);
+    }
+
+    @Override
+    public boolean released(int keyCode) {
+        int index = indexOf(keyCode);
+        return index >= 0 && get(releasedInFrame, index);
+    }
+
+    //==========================================================================
+
+    private int wordsInUse() {
+        return (size + 63) / 64;
+    }
+
+    private static boolean get(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void set(long[] bits, int index, boolean value) {
+        if(value) {
+            bits[index >>> 6] |= (1L << index);
+        } else {
+            bits[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    private static int hash(int keyCode) {
+        int h = keyCode * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    //dense index of the key code or -1 if it was never seen
+    private int indexOf(int keyCode) {
+        int stored = keyCode + 1;
+        int slot = hash(keyCode) & slotMask;
+        while(slotCodes[slot] != 0) {
+            if(slotCodes[slot] == stored) {
+                return slotIndices[slot];
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        return -1;
+    }
+
+    private int indexOrAdd(int keyCode) {
+        int index = indexOf(keyCode);
+        if(index >= 0) {
+            return index;
+        }
+
+        if(size == codes.length) {
+            grow();
+        }
+
+        index = size++;
+        codes[index] = keyCode;
+        insert(keyCode, index);
+        return index;
+    }
+
+    private void insert(int keyCode, int index) {
+        int slot = hash(keyCode) & slotMask;
+        while(slotCodes[slot] != 0) {
+            slot = (slot + 1) & slotMask;
+        }
+        slotCodes[slot] = keyCode + 1;
+        slotIndices[slot] = index;
+    }
+
+    //only happens when more distinct keys are used than fit
+    private void grow() {
+        int capacity = codes.length * 2;
+
+        int[] newCodes = new int[capacity];
+        System.arraycopy(codes, 0, newCodes, 0, size);
+        codes = newCodes;
+
+        hold = copyOf(hold, capacity / 64);
+        pressedInFrame = copyOf(pressedInFrame, capacity / 64);
+        releasedInFrame = copyOf(releasedInFrame, capacity / 64);
+
+        slotCodes = new int[capacity * 2];
+        slotIndices = new int[capacity * 2];
+        slotMask = slotCodes.length - 1;
+        for(int i = 0; i < size; i++) {
+            insert(codes[i], i);
+        }
+    }
+
+    private static long[] copyOf(long[] bits, int words) {
+        long[] copy = new long[words];
+        System.arraycopy(bits, 0, copy, 0, bits.length);
+        return copy;
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+/**
+ * A histogram of latencies with buckets of one millisecond.
+ * Latencies beyond the last bucket are counted in the last bucket.
+ * Recording does not allocate and is safe from any thread.
+ * @author Markus Schr&ouml;der
+ */
+public class LatencyHistogram {
+
+    private static final long NANO_TO_MILLI = 1000000L;
+
+    /**
+     * Number of one millisecond buckets by default.
+     */
+    public static final int DEFAULT_BUCKETS = 250;
+
+    private final long[] buckets;
+    private long count;
+    private long sumNanos;
+    private long maxNanos;
+
+    public LatencyHistogram() {
+        this(DEFAULT_BUCKETS);
+    }
+
+    /**
+     * @param maxMillis latencies up to this are counted exactly
+     */
+    public LatencyHistogram(int maxMillis) {
+        buckets = new long[maxMillis + 1];
+    }
+
+    public synchronized void record(long nanos) {
+        if(nanos < 0) {
+            nanos = 0;
+        }
+        int bucket = (int) Math.min(buckets.length - 1, nanos / NANO_TO_MILLI);
+        buckets[bucket]++;
+        count++;
+        sumNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public synchronized void clear() {
+        for(int i = 0; i < buckets.length; i++) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        sumNanos = 0;
+        maxNanos = 0;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Mean latency in milliseconds.
+     * @return
+     */
+    public synchronized double getMean() {
+        if(count == 0) {
+            return 0;
+        }
+        return (sumNanos / (double) count) / NANO_TO_MILLI;
+    }
+
+    /**
+     * Maximum latency in milliseconds.
+     * @return
+     */
+    public synchronized double getMax() {
+        return maxNanos / (double) NANO_TO_MILLI;
+    }
+
+    /**
+     * Latency in milliseconds that the given fraction of samples does not exceed,
+     * with the resolution of a bucket (upper bucket border).
+     * @param p e.g. 0.99
+     * @return
+     */
+    public synchronized double getPercentile(double p) {
+        if(count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(p * count);
+        long seen = 0;
+        for(int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if(seen >= rank) {
+                return i + 1;
+            }
+        }
+        return buckets.length;
+    }
+
+    /**
+     * Copy of the counts. Index i counts latencies in [i, i+1) milliseconds.
+     * @return
+     */
+    public synchronized long[] getBuckets() {
+        return buckets.clone();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("n=%d mean=%.1f p50=%.0f p90=%.0f p99=%.0f max=%.1f ms",
+                count, getMean(), getPercentile(0.5), getPercentile(0.9), getPercentile(0.99), getMax());
+    }
+
+}
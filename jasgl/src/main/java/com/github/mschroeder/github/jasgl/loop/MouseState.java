@@ -0,0 +1,203 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+import com.github.mschroeder.github.jasgl.Mouse;
+import java.awt.event.MouseEvent;
+
+/**
+ * The mouse state a game loop hands to Game.input.
+ * The loop clears it at the beginning of each frame and feeds the mouse events
+ * of the frame into it. Moves are expected to be coalesced by the loop to
+ * one sample per frame.
+ * Buttons are kept as bit masks, so queries do not allocate.
+ * @author Markus Schr&ouml;der
+ */
+public class MouseState implements Mouse {
+
+    //bit i is button i (MouseEvent.BUTTON1 ...)
+    private int holdMask;
+    private int pressedMask;
+    private int releasedMask;
+    
+    private int x;
+    private int y;
+    private boolean moved;
+    private boolean dragging;
+    private boolean inside;
+    private double wheelRotation;
+    
+    //canvas to viewport: viewport = (canvas - offset) / scale
+    private double viewportOffsetX;
+    private double viewportOffsetY;
+    private double viewportScaleX = 1;
+    private double viewportScaleY = 1;
+    
+    /**
+     * Forgets the pressed and released buttons, the move and the wheel 
+     * rotation of the last frame.
+     */
+    public void beginFrame() {
+        pressedMask = 0;
+        releasedMask = 0;
+        moved = false;
+        wheelRotation = 0;
+    }
+    
+    /**
+     * A button went down.
+     * @param button e.g. MouseEvent.BUTTON1
+     */
+    public void buttonPressed(int button) {
+        int bit = bit(button);
+        holdMask |= bit;
+        pressedMask |= bit;
+    }
+    
+    /**
+     * A button went up.
+     * @param button e.g. MouseEvent.BUTTON1
+     */
+    public void buttonReleased(int button) {
+        int bit = bit(button);
+        holdMask &= ~bit;
+        releasedMask |= bit;
+        if(holdMask == 0) {
+            dragging = false;
+        }
+    }
+    
+    /**
+     * Lets go of all hold buttons without reporting them as released,
+     * e.g. when the source of the input changes.
+     */
+    public void releaseAll() {
+        holdMask = 0;
+        dragging = false;
+    }
+    
+    /**
+     * The mouse is at a new position on the canvas.
+     * @param x
+     * @param y 
+     */
+    public void moved(int x, int y) {
+        if(x == this.x && y == this.y) {
+            return;
+        }
+        this.x = x;
+        this.y = y;
+        moved = true;
+        if(holdMask != 0) {
+            dragging = true;
+        }
+    }
+    
+    /**
+     * The wheel was rotated.
+     * @param rotation see MouseWheelEvent.getPreciseWheelRotation()
+     */
+    public void wheelRotated(double rotation) {
+        wheelRotation += rotation;
+    }
+    
+    /**
+     * The mouse entered or exited the canvas.
+     * @param inside 
+     */
+    public void setInside(boolean inside) {
+        this.inside = inside;
+    }
+    
+    /**
+     * How the viewport the game renders in is placed on the canvas.
+     * @param offsetX canvas x of the viewport's left border
+     * @param offsetY canvas y of the viewport's top border
+     * @param scaleX canvas pixels per viewport pixel
+     * @param scaleY canvas pixels per viewport pixel
+     */
+    public void setViewportTransform(double offsetX, double offsetY, double scaleX, double scaleY) {
+        this.viewportOffsetX = offsetX;
+        this.viewportOffsetY = offsetY;
+        this.viewportScaleX = scaleX;
+        this.viewportScaleY = scaleY;
+    }
+    
+    private static int bit(int button) {
+        if(button < 0 || button > 31) {
+            return 0;
+        }
+        return 1 << button;
+    }
+    
+    //==========================================================================
+    
+    @Override
+    public boolean left() {
+        return pressed(MouseEvent.BUTTON1);
+    }
+
+    @Override
+    public boolean middle() {
+        return pressed(MouseEvent.BUTTON2);
+    }
+
+    @Override
+    public boolean right() {
+        return pressed(MouseEvent.BUTTON3);
+    }
+
+    @Override
+    public boolean hold(int button) {
+        return (holdMask & bit(button)) != 0;
+    }
+
+    @Override
+    public boolean pressed(int button) {
+        return (pressedMask & bit(button)) != 0;
+    }
+
+    @Override
+    public boolean released(int button) {
+        return (releasedMask & bit(button)) != 0;
+    }
+
+    @Override
+    public int getX() {
+        return x;
+    }
+
+    @Override
+    public int getY() {
+        return y;
+    }
+
+    @Override
+    public double getViewportX() {
+        return (x - viewportOffsetX) / viewportScaleX;
+    }
+
+    @Override
+    public double getViewportY() {
+        return (y - viewportOffsetY) / viewportScaleY;
+    }
+
+    @Override
+    public boolean moved() {
+        return moved;
+    }
+
+    @Override
+    public boolean dragging() {
+        return dragging;
+    }
+
+    @Override
+    public double getWheelRotation() {
+        return wheelRotation;
+    }
+
+    @Override
+    public boolean inside() {
+        return inside;
+    }
+    
+}
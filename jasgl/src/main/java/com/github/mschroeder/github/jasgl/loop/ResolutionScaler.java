@@ -0,0 +1,131 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+/**
+ * Decides the internal render resolution of a fixed viewport, so that
+ * rendering fits into the frame budget.
+ * <p>
+ * The draw times are averaged over a window of frames. If the average takes
+ * more than the upper threshold of the budget, the scale steps down.
+ * It steps up again only if several windows in a row took less than the
+ * lower threshold. The gap between the thresholds and the longer wait for
+ * stepping up keep the scale from oscillating.
+ * @author Markus Schr&ouml;der
+ */
+public class ResolutionScaler {
+
+    private static final int WINDOW = 30;
+    private static final int WINDOWS_BEFORE_UP = 3;
+
+    private double minScale;
+    private double maxScale;
+    private double step = 0.1;
+
+    //fractions of the frame budget
+    private double downThreshold = 0.85;
+    private double upThreshold = 0.5;
+
+    private double scale;
+
+    private long sum;
+    private int count;
+    private int fastWindows;
+
+    /**
+     * A scaler that starts at the max scale.
+     * @param minScale lowest scale, e.g. 0.5 for half the viewport size
+     * @param maxScale highest scale, usually 1
+     */
+    public ResolutionScaler(double minScale, double maxScale) {
+        if(minScale <= 0 || minScale > maxScale) {
+            throw new IllegalArgumentException("0 < minScale <= maxScale required");
+        }
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        this.scale = maxScale;
+    }
+
+    /**
+     * Records the draw time of a frame and maybe changes the scale.
+     * @param drawNanos time it took to draw the frame
+     * @param budgetNanos time a frame may take (the frame period)
+     * @return the scale for the next frame
+     */
+    public double record(long drawNanos, long budgetNanos) {
+        sum += drawNanos;
+        count++;
+        if(count < WINDOW) {
+            return scale;
+        }
+
+        double avg = sum / (double) count;
+        sum = 0;
+        count = 0;
+
+        if(avg > budgetNanos * downThreshold) {
+            fastWindows = 0;
+            scale = Math.max(minScale, scale - step);
+        } else if(avg < budgetNanos * upThreshold) {
+            fastWindows++;
+            if(fastWindows >= WINDOWS_BEFORE_UP) {
+                fastWindows = 0;
+                scale = Math.min(maxScale, scale + step);
+            }
+        } else {
+            //within the band: keep it
+            fastWindows = 0;
+        }
+        return scale;
+    }
+
+    /**
+     * Forgets the measurements and starts again at the max scale.
+     */
+    public void reset() {
+        sum = 0;
+        count = 0;
+        fastWindows = 0;
+        scale = maxScale;
+    }
+
+    /**
+     * The current scale of the internal resolution.
+     * @return value in [minScale, maxScale]
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    public double getMinScale() {
+        return minScale;
+    }
+
+    public double getMaxScale() {
+        return maxScale;
+    }
+
+    public double getStep() {
+        return step;
+    }
+
+    /**
+     * How much the scale changes at once. Default is 0.1.
+     * @param step
+     */
+    public void setStep(double step) {
+        this.step = step;
+    }
+
+    /**
+     * Sets the band in which the scale is kept.
+     * @param upThreshold fraction of the budget below which it steps up (default 0.5)
+     * @param downThreshold fraction of the budget above which it steps down (default 0.85)
+     */
+    public void setThresholds(double upThreshold, double downThreshold) {
+        if(upThreshold >= downThreshold) {
+            throw new IllegalArgumentException("upThreshold has to be lower than downThreshold");
+        }
+        this.upThreshold = upThreshold;
+        this.downThreshold = downThreshold;
+    }
+
+}
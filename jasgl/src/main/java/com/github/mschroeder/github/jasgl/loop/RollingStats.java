@@ -0,0 +1,123 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the last n durations of something (e.g. a frame phase) and computes
+ * min, average, 99th percentile and max over them.
+ * Recording and querying do not allocate. It is safe to record in one thread
+ * and query in another.
+ * @author Markus Schr&ouml;der
+ */
+public class RollingStats {
+
+    private static final double NANO_TO_MILLI = 1000000.0;
+
+    private final long[] samples;
+    private final long[] sorted;
+    private int next;
+    private int size;
+    private long last;
+
+    /**
+     * @param window number of last samples that are kept
+     */
+    public RollingStats(int window) {
+        samples = new long[window];
+        sorted = new long[window];
+    }
+
+    /**
+     * Records a duration.
+     * @param nanos
+     */
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        if(size < samples.length) {
+            size++;
+        }
+        last = nanos;
+    }
+
+    public synchronized void clear() {
+        next = 0;
+        size = 0;
+        last = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * The last recorded duration in milliseconds.
+     * @return
+     */
+    public synchronized double getLast() {
+        return last / NANO_TO_MILLI;
+    }
+
+    public synchronized double getMin() {
+        if(size == 0) {
+            return 0;
+        }
+        long min = Long.MAX_VALUE;
+        for(int i = 0; i < size; i++) {
+            min = Math.min(min, samples[i]);
+        }
+        return min / NANO_TO_MILLI;
+    }
+
+    public synchronized double getMax() {
+        if(size == 0) {
+            return 0;
+        }
+        long max = Long.MIN_VALUE;
+        for(int i = 0; i < size; i++) {
+            max = Math.max(max, samples[i]);
+        }
+        return max / NANO_TO_MILLI;
+    }
+
+    public synchronized double getAvg() {
+        if(size == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for(int i = 0; i < size; i++) {
+            sum += samples[i];
+        }
+        return (sum / (double) size) / NANO_TO_MILLI;
+    }
+
+    /**
+     * The 99th percentile.
+     * @return
+     */
+    public double getP99() {
+        return getPercentile(0.99);
+    }
+
+    /**
+     * The duration that the given fraction of samples does not exceed.
+     * @param p e.g. 0.99
+     * @return
+     */
+    public synchronized double getPercentile(double p) {
+        if(size == 0) {
+            return 0;
+        }
+        System.arraycopy(samples, 0, sorted, 0, size);
+        Arrays.sort(sorted, 0, size);
+        int index = (int) Math.ceil(p * size) - 1;
+        index = Math.max(0, Math.min(size - 1, index));
+        return sorted[index] / NANO_TO_MILLI;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.2f/%.2f/%.2f/%.2f ms", getMin(), getAvg(), getP99(), getMax());
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.github.mschroeder.github.jasgl.loop;
+
+import java.util.Arrays;
+
+/**
+ * Runs incremental tasks cooperatively on the loop thread within a time
+ * budget per frame. The game loop calls {@link #run()} after update and 
+ * before render.
+ * <p>
+ * Tasks with a higher priority run first, tasks with the same priority in 
+ * the order they were scheduled. At least one step is done per frame,
+ * so a task finishes even if the budget is too small.
+ * Use it only on the loop thread (e.g. in Game.input or Game.update).
+ * @author Markus Schr&ouml;der
+ */
+public class TaskScheduler {
+
+    private static final double NANO_TO_MILLI = 1000000.0;
+    
+    //sorted by priority (highest first), then by schedule order
+    private IncrementalTask[] tasks = new IncrementalTask[16];
+    private int[] priorities = new int[16];
+    private int size;
+    
+    private long budgetNanos;
+    private long lastRunNanos;
+    private int lastSteps;
+    private long finished;
+
+    /**
+     * @param budgetMillis milliseconds per frame the tasks may take
+     */
+    public TaskScheduler(double budgetMillis) {
+        setBudget(budgetMillis);
+    }
+    
+    /**
+     * Schedules a task.
+     * @param task
+     * @param priority higher runs first
+     */
+    public void schedule(IncrementalTask task, int priority) {
+        if(size == tasks.length) {
+            tasks = Arrays.copyOf(tasks, size * 2);
+            priorities = Arrays.copyOf(priorities, size * 2);
+        }
+        int i = 0;
+        while(i < size && priorities[i] >= priority) {
+            i++;
+        }
+        System.arraycopy(tasks, i, tasks, i + 1, size - i);
+        System.arraycopy(priorities, i, priorities, i + 1, size - i);
+        tasks[i] = task;
+        priorities[i] = priority;
+        size++;
+    }
+    
+    /**
+     * Removes a task that is not finished yet.
+     * @param task
+     * @return false if it was not scheduled
+     */
+    public boolean cancel(IncrementalTask task) {
+        int i = indexOf(task);
+        if(i < 0) {
+            return false;
+        }
+        remove(i);
+        return true;
+    }
+    
+    //by identity, tasks may override equals
+    private int indexOf(IncrementalTask task) {
+        for(int i = 0; i < size; i++) {
+            if(tasks[i] == task) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private void remove(int i) {
+        size--;
+        System.arraycopy(tasks, i + 1, tasks, i, size - i);
+        System.arraycopy(priorities, i + 1, priorities, i, size - i);
+        tasks[size] = null;
+    }
+    
+    /**
+     * Steps the tasks until the budget of this frame is used up.
+     * @return number of steps done
+     */
+    public int run() {
+        long begin = System.nanoTime();
+        long end = begin + budgetNanos;
+        int steps = 0;
+        long now = begin;
+        while(size > 0 && (steps == 0 || now < end)) {
+            IncrementalTask task = tasks[0];
+            boolean done = task.step();
+            steps++;
+            if(done) {
+                //the step may have cancelled it or scheduled a task before it
+                int i = tasks[0] == task ? 0 : indexOf(task);
+                if(i >= 0) {
+                    remove(i);
+                    finished++;
+                }
+            }
+            now = System.nanoTime();
+        }
+        lastRunNanos = now - begin;
+        lastSteps = steps;
+        return steps;
+    }
+    
+    /**
+     * Number of tasks which are not finished.
+     * @return 
+     */
+    public int getBacklog() {
+        return size;
+    }
+    
+    /**
+     * Sum of the remaining steps the tasks estimate.
+     * @return -1 if a task does not know it
+     */
+    public long getBacklogSteps() {
+        long sum = 0;
+        for(int i = 0; i < size; i++) {
+            int remaining = tasks[i].remainingSteps();
+            if(remaining < 0) {
+                return -1;
+            }
+            sum += remaining;
+        }
+        return sum;
+    }
+
+    public boolean isIdle() {
+        return size == 0;
+    }
+    
+    public double getBudget() {
+        return budgetNanos / NANO_TO_MILLI;
+    }
+
+    /**
+     * Milliseconds per frame the tasks may take.
+     * @param budgetMillis 
+     */
+    public final void setBudget(double budgetMillis) {
+        if(budgetMillis < 0) {
+            throw new IllegalArgumentException("budget must not be negative");
+        }
+        this.budgetNanos = (long) (budgetMillis * NANO_TO_MILLI);
+    }
+    
+    /**
+     * Milliseconds the last run took.
+     * @return 
+     */
+    public double getLastRunMillis() {
+        return lastRunNanos / NANO_TO_MILLI;
+    }
+
+    /**
+     * Steps done in the last run.
+     * @return 
+     */
+    public int getLastSteps() {
+        return lastSteps;
+    }
+
+    /**
+     * Tasks finished so far.
+     * @return 
+     */
+    public long getFinished() {
+        return finished;
+    }
+    
+}
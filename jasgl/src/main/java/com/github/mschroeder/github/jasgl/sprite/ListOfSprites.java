@@ -23,6 +23,15 @@ public class ListOfSprites extends ArrayList<Sprite> {
         super(c);
     }
     
+    /**
+     * Changes with every add, remove or sort, so a copy of the list
+     * knows when it has to be updated.
+     * @return 
+     */
+    public int getModCount() {
+        return modCount;
+    }
+    
     /**
      * Adds the sprite only if it is absent.
      * @param sprite 